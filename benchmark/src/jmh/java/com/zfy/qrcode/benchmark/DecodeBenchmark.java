@@ -0,0 +1,104 @@
+package com.zfy.qrcode.benchmark;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.zfy.qrcode.decode.BinarizerCascade;
+import com.zfy.qrcode.decode.RotatedLuminanceSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解码路径：预览帧旋转、预览帧解码（DecodeHandler.decode）、相册图片解码（DecodeHandler.decodeQrCode）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DecodeBenchmark {
+
+    private static final int ROTATION = 90; // 大部分手机后置摄像头的方向
+
+    @Param({"480p", "720p", "1080p"})
+    public String resolution;
+
+    @Param({"QR_CODE", "CODE_128"})
+    public String format;
+
+    private int              width;
+    private int              height;
+    private byte[]           cameraFrame;
+    private byte[]           albumFrame;
+    private byte[]           rotateBuffer;
+    private BinarizerCascade cascade;
+    // 取景框，坐标为旋转后的预览帧
+    private int              cropLeft;
+    private int              cropTop;
+    private int              cropSize;
+
+    @Setup
+    public void setup() throws Exception {
+        int[] size = Frames.size(resolution);
+        width = size[0];
+        height = size[1];
+        BarcodeFormat barcodeFormat = BarcodeFormat.valueOf(format);
+        cameraFrame = Frames.cameraFrame(barcodeFormat, width, height);
+        albumFrame = Frames.albumFrame(barcodeFormat, width, height);
+        rotateBuffer = new byte[width * height];
+
+        int rotatedWidth = RotatedLuminanceSource.getRotatedWidth(width, height, ROTATION);
+        int rotatedHeight = RotatedLuminanceSource.getRotatedHeight(width, height, ROTATION);
+        cropSize = rotatedWidth * 7 / 8;
+        cropLeft = (rotatedWidth - cropSize) / 2;
+        cropTop = (rotatedHeight - cropSize) / 2;
+
+        boolean qrOnly = barcodeFormat == BarcodeFormat.QR_CODE;
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, Collections.singletonList(barcodeFormat));
+        cascade = new BinarizerCascade(qrOnly, hints, true);
+
+        // 合成的帧必须能识别，否则测的只是失败路径
+        String expected = Frames.payload(barcodeFormat);
+        check(expected, decodePreviewFrame(), "preview");
+        check(expected, decodeAlbumImage(), "album");
+    }
+
+    private static void check(String expected, Result result, String path) {
+        if (result == null || !expected.equals(result.getText())) {
+            throw new IllegalStateException("synthetic " + path + " frame is not decodable: " + result);
+        }
+    }
+
+    @Benchmark
+    public byte[] rotateFrame() {
+        return new RotatedLuminanceSource(cameraFrame, width, height, ROTATION,
+                0, 0, height, width, rotateBuffer).getMatrix();
+    }
+
+    @Benchmark
+    public Result decodePreviewFrame() {
+        LuminanceSource source = new RotatedLuminanceSource(cameraFrame, width, height, ROTATION,
+                cropLeft, cropTop, cropSize, cropSize, rotateBuffer);
+        return cascade.decode(source);
+    }
+
+    @Benchmark
+    public Result decodeAlbumImage() {
+        LuminanceSource source = new PlanarYUVLuminanceSource(albumFrame, width, height,
+                0, 0, width, height, false);
+        return cascade.decode(source);
+    }
+}
@@ -0,0 +1,63 @@
+package com.zfy.qrcode.benchmark;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.QRCode;
+import com.zfy.qrcode.encoding.PngStreamWriter;
+import com.zfy.qrcode.encoding.QrCodeRenderer;
+import com.zfy.qrcode.encoding.QrSegmentEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成二维码像素（EncodingUtils.createQRCode 中 Bitmap 之前的部分），以及流式写 PNG
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncodeBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int size;
+
+    @Param({"short", "long"})
+    public String payload;
+
+    private String content() {
+        return "short".equals(payload) ? Frames.CODE_PAYLOAD : Frames.QR_PAYLOAD;
+    }
+
+    @Benchmark
+    public int[] renderPixels() throws WriterException {
+        return QrCodeRenderer.renderPixels(content(), size, size);
+    }
+
+    // 单一模式与分段编码的对比，分段多了最短路径的计算，但版本可能更小
+    @Benchmark
+    public QRCode encode() throws WriterException {
+        return QrCodeRenderer.encode(content(), ErrorCorrectionLevel.H);
+    }
+
+    @Benchmark
+    public QRCode encodeSegments() throws WriterException {
+        return QrSegmentEncoder.encode(content(), ErrorCorrectionLevel.H);
+    }
+
+    @Benchmark
+    public int writePng() throws WriterException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter.write(QrCodeRenderer.encode(content(), ErrorCorrectionLevel.H).getMatrix(), size, size,
+                QrCodeRenderer.DEFAULT_MARGIN, out);
+        return out.size();
+    }
+}
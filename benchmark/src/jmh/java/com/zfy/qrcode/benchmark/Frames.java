@@ -0,0 +1,126 @@
+package com.zfy.qrcode.benchmark;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.oned.Code128Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 生成基准测试用的合成 NV21 帧，码画在帧中间，加一点噪声避免整片纯色。
+ */
+final class Frames {
+
+    static final String QR_PAYLOAD   = "https://github.com/Android-Modularity/qrcode?from=benchmark&id=0123456789";
+    static final String CODE_PAYLOAD = "QRCODE-0123456789";
+
+    private static final int WHITE = 220;
+    private static final int BLACK = 30;
+    private static final int NOISE = 8;
+
+    private Frames() {
+    }
+
+    /**
+     * @param resolution 480p / 720p / 1080p
+     * @return 横屏的 {宽, 高}，和相机预览帧一致
+     */
+    static int[] size(String resolution) {
+        switch (resolution) {
+            case "480p":
+                return new int[]{640, 480};
+            case "720p":
+                return new int[]{1280, 720};
+            case "1080p":
+                return new int[]{1920, 1080};
+            default:
+                throw new IllegalArgumentException("unknown resolution " + resolution);
+        }
+    }
+
+    static String payload(BarcodeFormat format) {
+        return format == BarcodeFormat.QR_CODE ? QR_PAYLOAD : CODE_PAYLOAD;
+    }
+
+    /**
+     * 正向画着码的亮度图，相当于相册里的图片
+     */
+    static byte[] uprightLuminance(BarcodeFormat format, int width, int height) throws WriterException {
+        BitMatrix code = encode(format, width, height);
+        byte[] luminance = new byte[width * height];
+        Random random = new Random(width * 31 + height);
+        int left = (width - code.getWidth()) / 2;
+        int top = (height - code.getHeight()) / 2;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int cx = x - left;
+                int cy = y - top;
+                boolean black = cx >= 0 && cy >= 0 && cx < code.getWidth() && cy < code.getHeight() && code.get(cx, cy);
+                int value = (black ? BLACK : WHITE) + random.nextInt(NOISE * 2 + 1) - NOISE;
+                luminance[y * width + x] = (byte) value;
+            }
+        }
+        return luminance;
+    }
+
+    /**
+     * 相册图片转出来的 NV21 数据，码是正的
+     */
+    static byte[] albumFrame(BarcodeFormat format, int width, int height) throws WriterException {
+        return toNv21(uprightLuminance(format, width, height), width, height);
+    }
+
+    /**
+     * 相机预览帧：横屏的传感器看到的竖屏画面，即正向画面逆时针转 90 度，
+     * 顺时针旋转 90 度后码是正的
+     *
+     * @param width  预览帧宽（横屏）
+     * @param height 预览帧高（横屏）
+     */
+    static byte[] cameraFrame(BarcodeFormat format, int width, int height) throws WriterException {
+        // 竖屏画面宽高互换
+        byte[] upright = uprightLuminance(format, height, width);
+        byte[] raw = new byte[width * height];
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < height; x++) {
+                raw[(height - 1 - x) * width + y] = upright[y * height + x];
+            }
+        }
+        return toNv21(raw, width, height);
+    }
+
+    /**
+     * 亮度图对应的 ARGB 像素，用于 RGB 转 YUV 的测试
+     */
+    static int[] argb(byte[] luminance) {
+        int[] argb = new int[luminance.length];
+        for (int i = 0; i < luminance.length; i++) {
+            int value = luminance[i] & 0xff;
+            argb[i] = 0xff000000 | (value << 16) | (value << 8) | value;
+        }
+        return argb;
+    }
+
+    private static byte[] toNv21(byte[] luminance, int width, int height) {
+        byte[] nv21 = Arrays.copyOf(luminance, width * height * 3 / 2);
+        Arrays.fill(nv21, width * height, nv21.length, (byte) 128);
+        return nv21;
+    }
+
+    private static BitMatrix encode(BarcodeFormat format, int width, int height) throws WriterException {
+        int shortSide = Math.min(width, height);
+        if (format == BarcodeFormat.QR_CODE) {
+            Map<EncodeHintType, Object> hints = new HashMap<>();
+            hints.put(EncodeHintType.MARGIN, 2);
+            int size = shortSide / 2;
+            return new QRCodeWriter().encode(QR_PAYLOAD, format, size, size, hints);
+        }
+        return new Code128Writer().encode(CODE_PAYLOAD, format, width * 2 / 3, shortSide / 4);
+    }
+}
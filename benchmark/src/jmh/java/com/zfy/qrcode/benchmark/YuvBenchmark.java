@@ -0,0 +1,67 @@
+package com.zfy.qrcode.benchmark;
+
+import com.google.zxing.BarcodeFormat;
+import com.zfy.qrcode.utils.YuvUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 相册图片转换：ARGB 转 NV21（旧的 ZxImageUtils.getYUV420sp）与只转亮度（ZxImageUtils.getLuminance）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class YuvBenchmark {
+
+    @Param({"480p", "720p", "1080p"})
+    public String resolution;
+
+    private int    width;
+    private int    height;
+    private int[]   argb;
+    private short[] rgb565;
+    private byte[]  yuv;
+    private byte[]  luminance;
+
+    @Setup
+    public void setup() throws Exception {
+        int[] size = Frames.size(resolution);
+        width = size[0];
+        height = size[1];
+        argb = Frames.argb(Frames.uprightLuminance(BarcodeFormat.QR_CODE, width, height));
+        yuv = new byte[width * height * 3 / 2];
+        luminance = new byte[width * height];
+        rgb565 = new short[argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            rgb565[i] = (short) (((pixel >> 8) & 0xf800) | ((pixel >> 5) & 0x07e0) | ((pixel >> 3) & 0x001f));
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeYUV420SP() {
+        YuvUtils.encodeYUV420SP(yuv, argb, width, height);
+        return yuv;
+    }
+
+    @Benchmark
+    public byte[] argbToLuminance() {
+        YuvUtils.argbToLuminance(argb, luminance, argb.length);
+        return luminance;
+    }
+
+    @Benchmark
+    public byte[] rgb565ToLuminance() {
+        YuvUtils.rgb565ToLuminance(rgb565, luminance, rgb565.length);
+        return luminance;
+    }
+}
@@ -3,11 +3,18 @@ package com.duoyi.qrdecode;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.utils.PayloadCodec;
 import com.zfy.qrcode.utils.ZxImageUtils;
 
 public class DecodeEntry {
-    private final static int DEFAULT_WIDTH  = 720;
-    private final static int DEFAULT_HEIGHT = 1280;
+    public final static int DEFAULT_WIDTH  = 720;
+    public final static int DEFAULT_HEIGHT = 1280;
+
+    // native 解码不保证线程安全，同一个入口的调用串行执行；
+    // 相册和相机各用一把锁，批量扫描相册时不会挡住相机扫码（两者之前本来就会同时调用 native）
+    private static final Object FRAME_LOCK = new Object();
+    private static final Object FILE_LOCK  = new Object();
 
     static {
         System.loadLibrary("qrscan");
@@ -45,22 +52,30 @@ public class DecodeEntry {
         int pixels[] = new int[size];
         bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
         ZxImageUtils.recyclerBitmaps(bitmap);
-        if (barcodeFormat != null) {
-            return decodeFileFromJNI(barcodeFormat.get(), pixels, width, height);
-        } else {
-            return decodeFileFromJNI(BarcodeFormat.BARCODE | BarcodeFormat.QR_CODE, pixels, width, height);
+        int decodeCode = barcodeFormat != null ? barcodeFormat.get() : BarcodeFormat.BARCODE | BarcodeFormat.QR_CODE;
+        String result;
+        synchronized (FILE_LOCK) {
+            result = decodeFileFromJNI(decodeCode, pixels, width, height);
         }
+        return inflatePayload(result);
     }
 
     public static String getDecodeResult(BarcodeFormat barcodeFormat, byte[] data, int dataWidth,
                                          int dataHeight, int left, int top, int width, int height) {
-        if (barcodeFormat != null) {
-            return decodeFromJNI(barcodeFormat.get(), data, dataWidth, dataHeight, left, top, width, height);
-        } else {
-            return decodeFromJNI(BarcodeFormat.BARCODE | BarcodeFormat.QR_CODE, data, dataWidth, dataHeight, left, top, width, height);
+        int decodeCode = barcodeFormat != null ? barcodeFormat.get() : BarcodeFormat.BARCODE | BarcodeFormat.QR_CODE;
+        String result;
+        synchronized (FRAME_LOCK) {
+            result = decodeFromJNI(decodeCode, data, dataWidth, dataHeight, left, top, width, height);
         }
+        return inflatePayload(result);
+    }
+
+    // 压缩过的内容（"QZ1:" 开头）解压后返回
+    private static String inflatePayload(String result) {
+        return QrCode.QR_DECODE_INFLATE_PAYLOAD ? PayloadCodec.decode(result) : result;
     }
 
+    // 直接调用时不加锁，多线程请使用 getDecodeResult / getPixelsByBitmap
     public native static String decodeFromJNI(int decodeCode, byte[] data, int dataWidth,
                                               int dataHeight, int left, int top, int width, int height);
 
@@ -0,0 +1,79 @@
+package com.google.zxing.qrcode.encoder;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * 用已经编码好的数据位生成二维码。
+ * zxing 3.3 的 Encoder 只支持单一模式，分段编码在外部完成（见 com.zfy.qrcode.encoding.QrSegmentEncoder），
+ * 补齐、纠错码交织、选择掩码和生成矩阵这些步骤与 Encoder 完全相同，这些方法只在包内可见，所以放在这个包里。
+ */
+public final class QRCodeAssembler {
+
+    private QRCodeAssembler() {
+    }
+
+    /**
+     * @param dataBits 模式指示、字符数和数据，不含结束符和补齐
+     * @param mode     主要的编码模式，只用于 QRCode.getMode
+     * @param level    容错级别
+     * @param version  版本，必须能容纳 dataBits
+     * @return 二维码
+     */
+    public static QRCode assemble(BitArray dataBits, Mode mode, ErrorCorrectionLevel level, Version version)
+            throws WriterException {
+        int numDataBytes = getNumDataBytes(version, level);
+        if (dataBits.getSize() > numDataBytes * 8) {
+            throw new WriterException("Data too big for version " + version.getVersionNumber());
+        }
+        BitArray bits = new BitArray();
+        bits.appendBitArray(dataBits);
+        Encoder.terminateBits(numDataBytes, bits);
+
+        Version.ECBlocks ecBlocks = version.getECBlocksForLevel(level);
+        BitArray finalBits = Encoder.interleaveWithECBytes(bits, version.getTotalCodewords(), numDataBytes,
+                ecBlocks.getNumBlocks());
+
+        QRCode qrCode = new QRCode();
+        qrCode.setECLevel(level);
+        qrCode.setMode(mode);
+        qrCode.setVersion(version);
+
+        int dimension = version.getDimensionForVersion();
+        ByteMatrix matrix = new ByteMatrix(dimension, dimension);
+        int maskPattern = chooseMaskPattern(finalBits, level, version, matrix);
+        qrCode.setMaskPattern(maskPattern);
+        MatrixUtil.buildMatrix(finalBits, level, version, maskPattern, matrix);
+        qrCode.setMatrix(matrix);
+        return qrCode;
+    }
+
+    /**
+     * @return 指定版本和容错级别可以容纳的数据字节数
+     */
+    public static int getNumDataBytes(Version version, ErrorCorrectionLevel level) {
+        return version.getTotalCodewords() - version.getECBlocksForLevel(level).getTotalECCodewords();
+    }
+
+    // 与 Encoder.chooseMaskPattern 相同，选择惩罚分最低的掩码
+    private static int chooseMaskPattern(BitArray bits, ErrorCorrectionLevel level, Version version,
+                                         ByteMatrix matrix) throws WriterException {
+        int minPenalty = Integer.MAX_VALUE;
+        int bestMaskPattern = -1;
+        for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
+            MatrixUtil.buildMatrix(bits, level, version, maskPattern, matrix);
+            int penalty = MaskUtil.applyMaskPenaltyRule1(matrix)
+                    + MaskUtil.applyMaskPenaltyRule2(matrix)
+                    + MaskUtil.applyMaskPenaltyRule3(matrix)
+                    + MaskUtil.applyMaskPenaltyRule4(matrix);
+            if (penalty < minPenalty) {
+                minPenalty = penalty;
+                bestMaskPattern = maskPattern;
+            }
+        }
+        return bestMaskPattern;
+    }
+}
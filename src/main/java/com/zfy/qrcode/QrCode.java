@@ -1,12 +1,23 @@
 package com.zfy.qrcode;
 
 import android.graphics.Bitmap;
+import android.widget.ImageView;
 
-import com.duoyi.qrdecode.BarcodeFormat;
-import com.duoyi.qrdecode.DecodeEntry;
-import com.zfy.qrcode.decode.DecodeHandler;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.zfy.qrcode.decode.AlbumBatchDecoder;
+import com.zfy.qrcode.decode.AlbumDecoder;
 import com.zfy.qrcode.encoding.EncodingUtils;
-import com.zfy.qrcode.utils.ZxImageUtils;
+import com.zfy.qrcode.encoding.QrCodeAsyncEncoder;
+import com.zfy.qrcode.encoding.QrCodeBulkWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 /**
  * CreateAt : 8/8/17
@@ -22,6 +33,24 @@ public class QrCode {
     public static boolean QR_DECODE_CAPTURE_BY_ZBAR = true;
     public static boolean QR_DECODE_ALBUM_BY_ZBAR   = true;
     public static boolean QR_ONLY   = true;
+    public static boolean QR_DECODE_TRY_HARDER      = true; // 连续识别失败时允许最后一级使用 TRY_HARDER
+    public static boolean QR_PREVIEW_WITH_BUFFER    = true; // 预览帧使用复用缓冲，避免每帧分配
+    public static boolean QR_CAPTURE_BY_CAMERA2     = false; // Android 5.0 及以上使用 Camera2 + ImageReader 采集预览帧，需在打开相机前设置
+    public static boolean QR_PREVIEW_SIZE_BY_DECODE = true; // 按取景框内每个模块的像素数选最小够用的预览尺寸，连续识别失败时逐级提高；zbar 扫码时不生效
+    public static boolean QR_PREVIEW_SIZE_BY_DECODE_LEGACY = false; // 旧相机 API 也按解码选预览尺寸；旧 API 的预览画面与解码帧同一尺寸，画面会变模糊
+    public static boolean QR_CAMERA_PROFILE_ENABLE  = true; // 在缓存目录保存每个相机第一次配置的结果（预览尺寸、对焦模式等），之后打开相机时直接使用
+    public static boolean QR_FOCUS_BY_SHARPNESS     = true; // 预览帧变模糊或连续识别失败时才重新对焦，关闭时每 2 秒对焦一次
+    public static int     QR_DECODE_WORKER_COUNT    = 0; // 解码线程数，<= 0 时按 CPU 核数决定
+    public static int     QR_ALBUM_BATCH_THREAD_COUNT  = 0; // 批量扫描相册的线程数，<= 0 时按 CPU 核数决定
+    public static long    QR_ALBUM_BATCH_MEMORY_BUDGET = 0; // 批量扫描相册同时解码的图片最多占用的内存，<= 0 时为最大堆的 1/8
+    public static boolean QR_ALBUM_CACHE_ENABLE        = true; // 缓存相册图片的解码结果
+    public static boolean QR_ALBUM_CACHE_CONTENT_HASH  = false; // 缓存 key 使用文件内容采样哈希，而不是路径和修改时间，需在 setAlbumCacheDir 前设置
+    public static boolean QR_ENCODE_CACHE_ENABLE       = false; // 缓存生成的二维码；开启后返回的 Bitmap 会被多个调用方共享，不要修改或回收
+    public static long    QR_ENCODE_CACHE_MEMORY_BYTES = 0; // 二维码内存缓存的字节数上限，<= 0 时为最大堆的 1/16
+    public static long    QR_ENCODE_CACHE_DISK_BYTES   = 16 * 1024 * 1024; // 二维码磁盘缓存的字节数上限
+    public static boolean QR_ENCODE_OPTIMIZE_SEGMENTS  = false; // 生成时按数字、字母数字、字节、汉字分段编码，使用尽量小的版本
+    public static boolean QR_ENCODE_COMPRESS_PAYLOAD   = false; // 生成时压缩大内容（deflate + base45，"QZ1:" 开头），更小时才使用
+    public static boolean QR_DECODE_INFLATE_PAYLOAD    = true; // 扫描结果以 "QZ1:" 开头时自动解压
 
     public static final int ZBAR  = 1;
     public static final int ZXING = 2;
@@ -33,7 +62,7 @@ public class QrCode {
      * @param widthPix  w
      * @param heightPix h
      * @param logoBm    logo bitmap
-     * @return 二维码 bitmap
+     * @return 二维码 bitmap，开启缓存时可能与其他调用方共享，不要修改或回收
      */
     public static Bitmap generateQRCode(String content, int widthPix, int heightPix, Bitmap logoBm) {
         return EncodingUtils.createQRCode(content, widthPix, heightPix, logoBm);
@@ -45,12 +74,198 @@ public class QrCode {
      * @param content   内容
      * @param widthPix  w
      * @param heightPix h
-     * @return 二维码 bitmap
+     * @return 二维码 bitmap，开启缓存时可能与其他调用方共享，不要修改或回收
      */
     public static Bitmap generateQRCode(String content, int widthPix, int heightPix) {
         return EncodingUtils.createQRCode(content, widthPix, heightPix, null);
     }
 
+    /**
+     * 创建指定格式的二维码，RGB_565、ALPHA_8 分别只占 ARGB_8888 的 1/2、1/4 内存；带 logo 时为 ARGB_8888
+     *
+     * @param content   内容
+     * @param widthPix  w
+     * @param heightPix h
+     * @param logoBm    logo bitmap，可以为 null
+     * @param config    Bitmap 格式，为 null 时使用 ARGB_8888
+     * @return 二维码 bitmap，开启缓存时可能与其他调用方共享，不要修改或回收
+     */
+    public static Bitmap generateQRCode(String content, int widthPix, int heightPix, Bitmap logoBm,
+                                        Bitmap.Config config) {
+        return EncodingUtils.createQRCode(content, widthPix, heightPix, logoBm, config);
+    }
+
+    /**
+     * 把二维码画进已有的 Bitmap，大小取 Bitmap 的宽高，适合列表中复用同一个 Bitmap，不经过缓存
+     *
+     * @param content 内容
+     * @param target  目标 bitmap，必须可修改
+     * @return 是否成功
+     */
+    public static boolean generateQRCode(String content, Bitmap target) {
+        return EncodingUtils.createQRCode(content, target, null);
+    }
+
+    /**
+     * 把有 logo 的二维码画进已有的 Bitmap
+     *
+     * @param content 内容
+     * @param target  目标 bitmap，必须可修改
+     * @param logoBm  logo bitmap，不会被回收
+     * @return 是否成功
+     */
+    public static boolean generateQRCode(String content, Bitmap target, Bitmap logoBm) {
+        return EncodingUtils.createQRCode(content, target, logoBm);
+    }
+
+    /**
+     * 创建 1 bit 一个模块的二维码矩阵，包含空白边距
+     *
+     * @param content 内容
+     * @return BitMatrix，true 为黑，失败返回 null
+     */
+    public static BitMatrix generateQRCodeMatrix(String content) {
+        try {
+            return EncodingUtils.createQRCodeMatrix(content);
+        } catch (WriterException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 创建 SVG 二维码，viewBox 以模块为单位
+     *
+     * @param content 内容
+     * @return SVG 文本，失败返回 null
+     */
+    public static String generateQRCodeSvg(String content) {
+        try {
+            return EncodingUtils.createQRCodeSvg(content);
+        } catch (WriterException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 把二维码写成 1 bit 灰度 PNG，不经过 Bitmap，大尺寸时不会 OOM
+     *
+     * @param content   内容
+     * @param widthPix  w
+     * @param heightPix h
+     * @param out       输出，不会被关闭
+     * @return 是否成功
+     */
+    public static boolean writeQRCodePng(String content, int widthPix, int heightPix, OutputStream out) {
+        try {
+            EncodingUtils.writeQRCodePng(content, widthPix, heightPix, out);
+            return true;
+        } catch (WriterException | IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 查询内容生成二维码时使用的版本，版本越小模块越少，越容易识别
+     *
+     * @param content 内容
+     * @return 版本 1~40，失败返回 -1
+     */
+    public static int getQRCodeVersion(String content) {
+        try {
+            return EncodingUtils.getQRCodeVersion(content);
+        } catch (WriterException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    /**
+     * 批量生成二维码，使用全部 CPU 核并行生成，直接写到 sink 给出的输出流，不保留 Bitmap
+     *
+     * @param contents  内容，可以是惰性生成的
+     * @param widthPix  w
+     * @param heightPix h
+     * @param format    输出格式
+     * @param sink      每一项的输出目标，例如 QrCodeBulkWriter.directorySink
+     * @param callback  主线程进度回调
+     * @return 可以用来取消的 Task
+     */
+    public static QrCodeBulkWriter.Task writeQRCodes(Iterator<String> contents, int widthPix, int heightPix,
+                                                     QrCodeBulkWriter.Format format, QrCodeBulkWriter.Sink sink,
+                                                     QrCodeBulkWriter.Callback callback) {
+        return new QrCodeBulkWriter(widthPix, heightPix, format, ErrorCorrectionLevel.H, 0)
+                .start(contents, sink, callback);
+    }
+
+    /**
+     * 设置生成二维码的磁盘缓存目录，不设置时只缓存在内存
+     *
+     * @param cacheDir 缓存目录，例如 new File(context.getCacheDir(), "qrcode")
+     */
+    public static void setQrCodeCacheDir(File cacheDir) {
+        EncodingUtils.setCacheDir(cacheDir);
+    }
+
+    /**
+     * 设置生成二维码的背景，白色模块处显示背景，为 null 时取消
+     *
+     * @param background 背景，不会被回收
+     */
+    public static void setQrCodeBackground(Bitmap background) {
+        EncodingUtils.setBackground(background);
+    }
+
+    /**
+     * 关闭缓存时，把不再使用的带 logo 或背景的二维码交还复用
+     *
+     * @param bitmap 之前生成的二维码
+     */
+    public static void releaseQRCode(Bitmap bitmap) {
+        EncodingUtils.releaseQRCode(bitmap);
+    }
+
+    /**
+     * 异步创建二维码，在后台线程生成，相同参数正在生成的请求会合并
+     *
+     * @param content   内容
+     * @param widthPix  w
+     * @param heightPix h
+     * @param logoBm    logo bitmap，可以为 null
+     * @param callback  主线程回调
+     * @return 可以用来取消的 Task
+     */
+    public static QrCodeAsyncEncoder.Task generateQRCodeAsync(String content, int widthPix, int heightPix,
+                                                              Bitmap logoBm, QrCodeAsyncEncoder.Callback callback) {
+        return getAsyncEncoder().encode(content, widthPix, heightPix, logoBm, callback);
+    }
+
+    /**
+     * 异步创建二维码并显示到 ImageView，View 被复用重新绑定时之前的请求自动取消，适合列表
+     *
+     * @param view      显示的 View
+     * @param content   内容
+     * @param widthPix  w
+     * @param heightPix h
+     * @param logoBm    logo bitmap，可以为 null
+     * @return 可以用来取消的 Task
+     */
+    public static QrCodeAsyncEncoder.Task displayQRCode(ImageView view, String content, int widthPix, int heightPix,
+                                                        Bitmap logoBm) {
+        return getAsyncEncoder().into(view, content, widthPix, heightPix, logoBm);
+    }
+
+    /**
+     * 设置异步生成二维码使用的线程池，为 null 时恢复默认
+     *
+     * @param executor 线程池
+     */
+    public static void setQrCodeEncodeExecutor(Executor executor) {
+        getAsyncEncoder().setExecutor(executor);
+    }
+
     /**
      * 扫描相册二维码
      *
@@ -58,14 +273,53 @@ public class QrCode {
      * @return 二维码中的字符串
      */
     public static String scanAlbumQrCode(String filePath) {
-        if (QrCode.QR_DECODE_ALBUM_BY_ZBAR) {
-            return DecodeEntry.decodeFromFile(filePath, new BarcodeFormat(BarcodeFormat.QR_CODE));
-        } else {
-            Bitmap bitmap = ZxImageUtils.decodeSampledBitmapFromFile(filePath, 256, 256);
-            byte[] yuv420sp = ZxImageUtils.getYUV420sp(bitmap.getWidth(), bitmap.getHeight(), bitmap);
-            ZxImageUtils.recyclerBitmaps(bitmap);
-            return new DecodeHandler().decodeQrCode(yuv420sp, bitmap.getWidth(), bitmap.getHeight());
+        return AlbumDecoder.decode(filePath);
+    }
+
+    /**
+     * 批量扫描相册二维码，在后台线程并行解码，每张图片的结果在主线程回调
+     *
+     * @param filePaths 二维码路径
+     * @param callback  结果回调
+     * @return 可以用来取消的 Task
+     */
+    public static AlbumBatchDecoder.Task scanAlbumQrCodes(Collection<String> filePaths, AlbumBatchDecoder.Callback callback) {
+        return getAlbumBatchDecoder().decode(filePaths, callback);
+    }
+
+    /**
+     * 设置相册解码结果的磁盘缓存目录，不设置时只缓存在内存
+     *
+     * @param cacheDir 缓存目录，例如 context.getCacheDir()
+     */
+    public static void setAlbumCacheDir(File cacheDir) {
+        AlbumDecoder.setCacheDir(cacheDir);
+    }
+
+    /**
+     * 清空相册解码结果缓存
+     */
+    public static void clearAlbumCache() {
+        AlbumDecoder.clearCache();
+    }
+
+    private static AlbumBatchDecoder  sAlbumBatchDecoder;
+    private static QrCodeAsyncEncoder sAsyncEncoder;
+
+    private static synchronized QrCodeAsyncEncoder getAsyncEncoder() {
+        if (sAsyncEncoder == null) {
+            sAsyncEncoder = new QrCodeAsyncEncoder(null);
+        }
+        return sAsyncEncoder;
+    }
+
+    private static synchronized AlbumBatchDecoder getAlbumBatchDecoder() {
+        if (sAlbumBatchDecoder == null) {
+            long budget = QR_ALBUM_BATCH_MEMORY_BUDGET > 0
+                    ? QR_ALBUM_BATCH_MEMORY_BUDGET : Runtime.getRuntime().maxMemory() / 8;
+            sAlbumBatchDecoder = new AlbumBatchDecoder(QR_ALBUM_BATCH_THREAD_COUNT, budget);
         }
+        return sAlbumBatchDecoder;
     }
 
 
@@ -16,26 +16,45 @@
 
 package com.zfy.qrcode.camera;
 
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.hardware.Camera;
-import android.os.AsyncTask;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.zfy.qrcode.QrCode;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import com.zfy.qrcode.utils.ZxConstants;
-
-
+/**
+ * Calls {@link Camera#autoFocus} for the focus modes that do not focus by themselves. Rather than
+ * refocusing on a fixed period, with {@link QrCode#QR_FOCUS_BY_SHARPNESS} it watches a cheap
+ * sharpness measure of the preview frames and the decoder's results: focus is triggered when frames
+ * get clearly softer than the sharpest one seen since the last focus, or when decodes keep failing.
+ * While frames stay sharp and codes are being read the lens is left alone. Without the flag, or
+ * while no frames come in to measure, it refocuses every {@link #AUTO_FOCUS_INTERVAL_MS}.
+ * <p>
+ * Delayed work is scheduled on one shared executor thread, so nothing sleeps while waiting.
+ */
 @SuppressWarnings("deprecation") // camera APIs
 final class AutoFocusManager implements Camera.AutoFocusCallback {
 
   private static final String TAG = AutoFocusManager.class.getSimpleName();
 
   private static final long AUTO_FOCUS_INTERVAL_MS = 2000L;
+  // A sharpness drop never refocuses sooner than this after the last focus finished
+  private static final long MIN_FOCUS_INTERVAL_MS = 800L;
+  // Failing decodes refocus at most this often; the interval doubles while the frames stay sharp
+  private static final long MAX_FAILURE_FOCUS_INTERVAL_MS = 8000L;
+  private static final int  FAILED_DECODES_BEFORE_FOCUS = 6;
+  private static final long SAMPLE_INTERVAL_MS = 100L;
+  // A frame this much softer than the sharpest one since the last focus is taken as out of focus
+  private static final float SHARPNESS_DROP_RATIO = 0.6f;
+  private static final int  SAMPLE_STEP = 4;
   private static final Collection<String> FOCUS_MODES_CALLING_AF;
   static {
     FOCUS_MODES_CALLING_AF = new ArrayList<>(2);
@@ -43,44 +62,96 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
     FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_MACRO);
   }
 
+  private static ScheduledThreadPoolExecutor scheduler;
+
   private boolean stopped;
   private boolean focusing;
   private final boolean useAutoFocus;
   private final Camera camera;
-  private AsyncTask<?,?,?> outstandingTask;
+  private ScheduledFuture<?> outstandingTask;
+  // Since the last focus finished
+  private long lastFocusTime;
+  private long lastSampleTime;
+  private boolean sampled;
+  private float peakSharpness;
+  private int failedDecodes;
+  private long failureFocusInterval = AUTO_FOCUS_INTERVAL_MS;
 
-  AutoFocusManager(Context context, Camera camera) {
+  private final Runnable focusTask = new Runnable() {
+    @Override
+    public void run() {
+      start();
+    }
+  };
+
+  private final Runnable fallbackTask = new Runnable() {
+    @Override
+    public void run() {
+      onFallback();
+    }
+  };
+
+  /**
+   * @param focusMode focus mode the camera was configured with, or null to ask the camera
+   * @param autoFocus whether the auto focus preference is on
+   */
+  AutoFocusManager(Camera camera, String focusMode, boolean autoFocus) {
     this.camera = camera;
-    SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-    String currentFocusMode = camera.getParameters().getFocusMode();
-    useAutoFocus =
-        sharedPrefs.getBoolean(ZxConstants.KEY_AUTO_FOCUS, true) &&
-        FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
+    String currentFocusMode = focusMode != null ? focusMode : camera.getParameters().getFocusMode();
+    useAutoFocus = autoFocus && FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
     Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
     start();
   }
 
+  private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+    if (scheduler == null) {
+      scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "AutoFocus");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      // Nothing stays alive between scanning sessions
+      scheduler.setKeepAliveTime(30, TimeUnit.SECONDS);
+      scheduler.allowCoreThreadTimeOut(true);
+    }
+    return scheduler;
+  }
+
   @Override
   public synchronized void onAutoFocus(boolean success, Camera theCamera) {
     focusing = false;
-    autoFocusAgainLater();
+    lastFocusTime = SystemClock.uptimeMillis();
+    sampled = false;
+    peakSharpness = 0f;
+    failedDecodes = 0;
+    // Only fires if no frame or decode result asks for focus first
+    schedule(fallbackTask, AUTO_FOCUS_INTERVAL_MS);
   }
 
-  private synchronized void autoFocusAgainLater() {
-    if (!stopped && outstandingTask == null) {
-      AutoFocusTask newTask = new AutoFocusTask();
-      try {
-        newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-        outstandingTask = newTask;
-      } catch (RejectedExecutionException ree) {
-        Log.w(TAG, "Could not request auto focus", ree);
-      }
+  private synchronized void onFallback() {
+    if (!QrCode.QR_FOCUS_BY_SHARPNESS || !sampled) {
+      start();
+    }
+  }
+
+  private synchronized void schedule(Runnable task, long delayMs) {
+    if (stopped) {
+      return;
+    }
+    cancelOutstandingTask();
+    try {
+      outstandingTask = getScheduler().schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ree) {
+      Log.w(TAG, "Could not request auto focus", ree);
     }
   }
 
   synchronized void start() {
     if (useAutoFocus) {
-      outstandingTask = null;
+      cancelOutstandingTask();
       if (!stopped && !focusing) {
         try {
           camera.autoFocus(this);
@@ -89,17 +160,98 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
           // Have heard RuntimeException reported in Android 4.0.x+; continue?
           Log.w(TAG, "Unexpected exception while focusing", re);
           // Try again later to keep cycle going
-          autoFocusAgainLater();
+          schedule(focusTask, AUTO_FOCUS_INTERVAL_MS);
         }
       }
     }
   }
 
+  /**
+   * Samples the sharpness of a preview frame, at most every {@link #SAMPLE_INTERVAL_MS}, and
+   * refocuses if it dropped. Cheap enough to call for every frame, on the camera callback thread.
+   *
+   * @param data NV21 frame; only the Y plane is read
+   */
+  void onPreviewFrame(byte[] data, int width, int height) {
+    if (!useAutoFocus || !QrCode.QR_FOCUS_BY_SHARPNESS) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    synchronized (this) {
+      if (stopped || focusing || now - lastSampleTime < SAMPLE_INTERVAL_MS) {
+        return;
+      }
+      lastSampleTime = now;
+    }
+    float sharpness = measureSharpness(data, width, height);
+    synchronized (this) {
+      if (stopped || focusing) {
+        return;
+      }
+      sampled = true;
+      if (sharpness > peakSharpness) {
+        peakSharpness = sharpness;
+      } else if (sharpness < peakSharpness * SHARPNESS_DROP_RATIO
+          && now - lastFocusTime >= MIN_FOCUS_INTERVAL_MS) {
+        Log.d(TAG, "Sharpness dropped to " + sharpness + " from " + peakSharpness + "; focusing");
+        failureFocusInterval = AUTO_FOCUS_INTERVAL_MS;
+        schedule(focusTask, 0L);
+      }
+    }
+  }
+
+  /**
+   * Feedback from the decoder. Successes hold the current focus; a run of failures refocuses, less
+   * and less often while the frames stay sharp, since then there is more likely no code in view.
+   */
+  synchronized void onDecodeResult(boolean decoded) {
+    if (!useAutoFocus || !QrCode.QR_FOCUS_BY_SHARPNESS || stopped) {
+      return;
+    }
+    if (decoded) {
+      failedDecodes = 0;
+      failureFocusInterval = AUTO_FOCUS_INTERVAL_MS;
+      return;
+    }
+    if (focusing || ++failedDecodes < FAILED_DECODES_BEFORE_FOCUS) {
+      return;
+    }
+    if (SystemClock.uptimeMillis() - lastFocusTime >= failureFocusInterval) {
+      Log.d(TAG, failedDecodes + " failed decodes; focusing");
+      failureFocusInterval = Math.min(failureFocusInterval * 2, MAX_FAILURE_FOCUS_INTERVAL_MS);
+      schedule(focusTask, 0L);
+    }
+  }
+
+  /**
+   * Mean absolute difference between neighbouring luminance values in the middle of the frame, on a
+   * sparse grid. It depends on the scene, so it only means something compared with recent frames.
+   */
+  static float measureSharpness(byte[] data, int width, int height) {
+    int left = width / 4;
+    int top = height / 4;
+    int right = width - left - 1;
+    int bottom = height - top - 1;
+    if (data == null || data.length < width * height || right <= left || bottom <= top) {
+      return 0f;
+    }
+    long sum = 0;
+    int count = 0;
+    for (int y = top; y < bottom; y += SAMPLE_STEP) {
+      int row = y * width;
+      for (int x = left; x < right; x += SAMPLE_STEP) {
+        int offset = row + x;
+        int value = data[offset] & 0xff;
+        sum += Math.abs(value - (data[offset + 1] & 0xff)) + Math.abs(value - (data[offset + width] & 0xff));
+        count++;
+      }
+    }
+    return count == 0 ? 0f : (float) sum / count;
+  }
+
   private synchronized void cancelOutstandingTask() {
     if (outstandingTask != null) {
-      if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-        outstandingTask.cancel(true);
-      }
+      outstandingTask.cancel(false);
       outstandingTask = null;
     }
   }
@@ -118,17 +270,4 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
     }
   }
 
-  private final class AutoFocusTask extends AsyncTask<Object,Object,Object> {
-    @Override
-    protected Object doInBackground(Object... voids) {
-      try {
-        Thread.sleep(AUTO_FOCUS_INTERVAL_MS);
-      } catch (InterruptedException e) {
-        // continue
-      }
-      start();
-      return null;
-    }
-  }
-
 }
@@ -0,0 +1,659 @@
+package com.zfy.qrcode.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.zfy.qrcode.camera.open.CameraFacing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CaptureBackend} on top of Camera2. The preview goes straight to the SurfaceView while an
+ * {@link ImageReader} receives the same stream in YUV_420_888; only the Y plane is copied out, into
+ * a recycled buffer, and only when the decoder asks for a frame.
+ * <p>
+ * Everything that touches an {@link Image} runs on a private camera thread. Frames that arrive
+ * while nobody is waiting are parked like in the legacy buffer mode: the newest one is kept, older
+ * ones are dropped right away through {@link ImageReader#acquireLatestImage()}.
+ * <p>
+ * The SurfaceView only takes its fixed size after the next {@code surfaceChanged}, and a session
+ * built on the old buffer size fails or is scaled, so the preview waits for that callback.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2CaptureBackend implements CaptureBackend {
+
+  private static final String TAG = Camera2CaptureBackend.class.getSimpleName();
+
+  private static final long OPEN_TIMEOUT_MS = 2500L;
+  // One parked image, plus two for acquireLatestImage to skip over stale ones
+  private static final int  MAX_IMAGES      = 3;
+
+  private final CameraConfigurationManager              configManager;
+  private final android.hardware.camera2.CameraManager cameraService;
+
+  private HandlerThread          cameraThread;
+  private Handler                cameraHandler;
+  private CameraCharacteristics  characteristics;
+  private CameraDevice           device;
+  private CameraCaptureSession   session;
+  private ImageReader            imageReader;
+  private Surface                previewSurface; // only once the surface has the fixed size
+  private SurfaceHolder          previewHolder;
+  private Point                  displaySize;
+  private boolean                previewing;
+  private boolean                startPending; // startPreview() called before the surface was ready
+  private boolean                torch;
+  private Handler                errorHandler;
+  private int                    errorMessage;
+
+  // Camera thread only
+  private Image   parkedImage;
+  private Handler frameHandler;
+  private int     frameMessage;
+
+  // Luminance buffers handed to the decoder, guarded by themselves
+  private final Set<byte[]>       frameBuffers     = new HashSet<>();
+  private final ArrayDeque<byte[]> freeFrameBuffers = new ArrayDeque<>();
+
+  private final SurfaceHolder.Callback surfaceCallback = new SurfaceHolder.Callback() {
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+      onSurfaceChanged(holder, width, height);
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+      onSurfaceDestroyed();
+    }
+  };
+
+  Camera2CaptureBackend(Context context, CameraConfigurationManager configManager) {
+    this.configManager = configManager;
+    this.cameraService =
+        (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+  }
+
+  @Override
+  public synchronized void open(int requestedCameraId) throws IOException {
+    if (device != null) {
+      return;
+    }
+    startCameraThread();
+    OpenCallback callback = new OpenCallback(this);
+    try {
+      String cameraId = chooseCameraId(requestedCameraId);
+      characteristics = cameraService.getCameraCharacteristics(cameraId);
+      Log.i(TAG, "Opening camera " + cameraId);
+      cameraService.openCamera(cameraId, callback, cameraHandler);
+    } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+      close();
+      throw new IOException("Camera2 failed to open the device", e);
+    }
+    CameraDevice opened = callback.await();
+    if (opened == null) {
+      close();
+      throw new IOException("Camera2 failed to open the device");
+    }
+    device = opened;
+  }
+
+  private String chooseCameraId(int requestedCameraId) throws CameraAccessException, IOException {
+    String[] ids = cameraService.getCameraIdList();
+    if (ids.length == 0) {
+      throw new IOException("No cameras!");
+    }
+    if (requestedCameraId >= ids.length) {
+      throw new IOException("Requested camera does not exist: " + requestedCameraId);
+    }
+    if (requestedCameraId >= 0) {
+      return ids[requestedCameraId];
+    }
+    for (String id : ids) {
+      Integer facing = cameraService.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+      if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+        return id;
+      }
+    }
+    Log.i(TAG, "No camera facing " + CameraFacing.BACK + "; returning camera " + ids[0]);
+    return ids[0];
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return device != null;
+  }
+
+  @Override
+  public synchronized void readConfiguration() {
+    Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+    Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    configManager.initFromCameraCharacteristics(
+        facing != null && facing == CameraMetadata.LENS_FACING_FRONT ? CameraFacing.FRONT : CameraFacing.BACK,
+        orientation == null ? 90 : orientation,
+        getSupportedSizes());
+  }
+
+  // Sizes both the SurfaceView and the YUV reader can take
+  private List<Point> getSupportedSizes() {
+    List<Point> sizes = new ArrayList<>();
+    StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    if (map == null) {
+      return sizes;
+    }
+    Size[] yuvSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+    Size[] previewSizes = map.getOutputSizes(SurfaceHolder.class);
+    if (yuvSizes == null) {
+      return sizes;
+    }
+    List<Size> previewSizeList = previewSizes == null ? null : Arrays.asList(previewSizes);
+    for (Size size : yuvSizes) {
+      if (previewSizeList == null || previewSizeList.contains(size)) {
+        sizes.add(new Point(size.getWidth(), size.getHeight()));
+      }
+    }
+    return sizes;
+  }
+
+  @Override
+  public synchronized void configure() {
+    if (imageReader == null) {
+      createImageReader();
+    }
+    torch = configManager.getFrontLightMode() == FrontLightMode.ON;
+  }
+
+  @Override
+  public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+    if (device == null) {
+      throw new IOException("Camera is not open");
+    }
+    // The display buffer has to match one of the stream sizes exactly; the SurfaceView scales and
+    // rotates it to the screen by itself. It stays at the size matching the screen while the
+    // decoder stream follows the camera resolution, which may be smaller.
+    displaySize = configManager.getScreenPreviewSize();
+    if (previewHolder != holder) {
+      detachPreviewHolder();
+      previewHolder = holder;
+      holder.addCallback(surfaceCallback);
+    }
+    holder.setFixedSize(displaySize.x, displaySize.y);
+    Rect frame = holder.getSurfaceFrame();
+    if (frame != null && frame.width() == displaySize.x && frame.height() == displaySize.y) {
+      previewSurface = holder.getSurface();
+    } else {
+      // Wait for surfaceChanged with the new size
+      previewSurface = null;
+    }
+  }
+
+  // UI thread
+  private synchronized void onSurfaceChanged(SurfaceHolder holder, int width, int height) {
+    if (holder != previewHolder || displaySize == null) {
+      return;
+    }
+    if (width != displaySize.x || height != displaySize.y) {
+      Log.i(TAG, "Surface is " + width + 'x' + height + ", waiting for " + displaySize.x + 'x' + displaySize.y);
+      return;
+    }
+    previewSurface = holder.getSurface();
+    if (startPending) {
+      startPending = false;
+      startPreview();
+    }
+  }
+
+  // UI thread
+  private synchronized void onSurfaceDestroyed() {
+    previewSurface = null;
+    if (!previewing) {
+      return;
+    }
+    // The session cannot outlive its surface. A pending frame request is kept, and the preview
+    // comes back with surfaceChanged if the surface is created again.
+    previewing = false;
+    startPending = true;
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+  }
+
+  private void detachPreviewHolder() {
+    if (previewHolder != null) {
+      previewHolder.removeCallback(surfaceCallback);
+      previewHolder = null;
+    }
+  }
+
+  @Override
+  public boolean hasIndependentDisplaySize() {
+    // The SurfaceView is a separate stream at the screen-matched size, see setPreviewDisplay
+    return true;
+  }
+
+  @Override
+  public synchronized void setErrorHandler(Handler handler, int message) {
+    errorHandler = handler;
+    errorMessage = message;
+  }
+
+  /**
+   * The device went away after {@link #open} returned it. Called on the camera thread.
+   */
+  private synchronized void onDeviceLost(CameraDevice camera, int error) {
+    if (camera != device) {
+      // Already closed by us, or a device we gave up on
+      camera.close();
+      return;
+    }
+    Log.w(TAG, "Camera lost, error " + error);
+    stopPreview();
+    device = null;
+    camera.close();
+    if (errorHandler != null) {
+      errorHandler.obtainMessage(errorMessage, error, 0).sendToTarget();
+    }
+  }
+
+  private void createImageReader() {
+    Point size = configManager.getCameraResolution();
+    imageReader = ImageReader.newInstance(size.x, size.y, ImageFormat.YUV_420_888, MAX_IMAGES);
+    imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+      @Override
+      public void onImageAvailable(ImageReader reader) {
+        onFrameAvailable(reader);
+      }
+    }, cameraHandler);
+  }
+
+  @Override
+  public synchronized void updatePreviewSize() {
+    if (device == null || imageReader == null) {
+      return;
+    }
+    boolean wasPreviewing = previewing;
+    stopPreview();
+    closeImageReader();
+    createImageReader();
+    if (wasPreviewing) {
+      startPreview();
+    }
+  }
+
+  private void closeImageReader() {
+    final ImageReader reader = imageReader;
+    imageReader = null;
+    if (reader != null) {
+      // Queued behind any frame still being copied
+      cameraHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          reader.close();
+        }
+      });
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    stopPreview();
+    if (device != null) {
+      device.close();
+      device = null;
+    }
+    previewSurface = null;
+    detachPreviewHolder();
+    displaySize = null;
+    if (cameraThread != null) {
+      closeImageReader();
+      cameraThread.quitSafely();
+      cameraThread = null;
+      cameraHandler = null;
+    }
+  }
+
+  @Override
+  public synchronized void startPreview() {
+    if (device == null || imageReader == null || previewing) {
+      return;
+    }
+    if (previewSurface == null) {
+      // Starts from onSurfaceChanged
+      startPending = previewHolder != null;
+      return;
+    }
+    previewing = true;
+    try {
+      device.createCaptureSession(Arrays.asList(previewSurface, imageReader.getSurface()),
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(CameraCaptureSession configured) {
+              onSessionConfigured(configured);
+            }
+
+            @Override
+            public void onConfigureFailed(CameraCaptureSession failed) {
+              Log.w(TAG, "Camera rejected the capture session");
+            }
+          }, cameraHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.w(TAG, "Unable to start preview", e);
+      previewing = false;
+    }
+  }
+
+  private synchronized void onSessionConfigured(CameraCaptureSession configured) {
+    if (!previewing || device == null) {
+      // Stopped while the session was being set up
+      configured.close();
+      return;
+    }
+    session = configured;
+    updateRepeatingRequest();
+  }
+
+  private void updateRepeatingRequest() {
+    try {
+      CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      builder.addTarget(previewSurface);
+      builder.addTarget(imageReader.getSurface());
+      builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+      builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+      builder.set(CaptureRequest.CONTROL_AF_MODE, chooseFocusMode());
+      builder.set(CaptureRequest.FLASH_MODE,
+          torch && hasFlash() ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+      session.setRepeatingRequest(builder.build(), null, cameraHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.w(TAG, "Unable to update the preview request", e);
+    }
+  }
+
+  // Same preferences as CameraConfigurationUtils.setFocus
+  private int chooseFocusMode() {
+    int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    if (modes == null || !configManager.isAutoFocusEnabled()) {
+      return CameraMetadata.CONTROL_AF_MODE_OFF;
+    }
+    List<Integer> desired = new ArrayList<>();
+    if (!configManager.isContinuousFocusDisabled()) {
+      desired.add(CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+      desired.add(CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+    }
+    desired.add(CameraMetadata.CONTROL_AF_MODE_AUTO);
+    for (int mode : desired) {
+      for (int available : modes) {
+        if (available == mode) {
+          return mode;
+        }
+      }
+    }
+    return CameraMetadata.CONTROL_AF_MODE_OFF;
+  }
+
+  private boolean hasFlash() {
+    Boolean available = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+    return available != null && available;
+  }
+
+  @Override
+  public synchronized void stopPreview() {
+    startPending = false;
+    if (!previewing) {
+      return;
+    }
+    previewing = false;
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+    cameraHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        frameHandler = null;
+        closeParkedImage();
+      }
+    });
+  }
+
+  @Override
+  public void setPreviewBufferCount(int count) {
+    // Luminance buffers are allocated on demand and recycled, so there is no pool to size
+  }
+
+  @Override
+  public synchronized void requestPreviewFrame(final Handler handler, final int message) {
+    // A request made before the session is up waits for its first frame
+    if (device == null) {
+      return;
+    }
+    cameraHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        Image image = parkedImage;
+        if (image != null) {
+          parkedImage = null;
+          deliver(image, handler, message);
+        } else {
+          frameHandler = handler;
+          frameMessage = message;
+        }
+      }
+    });
+  }
+
+  // Camera thread
+  void onFrameAvailable(ImageReader reader) {
+    closeParkedImage();
+    Image image;
+    try {
+      image = reader.acquireLatestImage();
+    } catch (IllegalStateException e) {
+      Log.w(TAG, "Image reader is out of buffers", e);
+      return;
+    }
+    if (image == null) {
+      return;
+    }
+    Handler handler = frameHandler;
+    if (handler != null) {
+      frameHandler = null;
+      deliver(image, handler, frameMessage);
+    } else {
+      parkedImage = image;
+    }
+  }
+
+  // Camera thread
+  private void deliver(Image image, Handler handler, int message) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] data = obtainFrameBuffer(width * height);
+    try {
+      // YUV_420_888 guarantees a pixel stride of 1 for Y; rows may be padded
+      Image.Plane plane = image.getPlanes()[0];
+      ByteBuffer buffer = plane.getBuffer();
+      int rowStride = plane.getRowStride();
+      if (rowStride == width) {
+        buffer.get(data, 0, width * height);
+      } else {
+        for (int y = 0; y < height; y++) {
+          buffer.position(y * rowStride);
+          buffer.get(data, y * width, width);
+        }
+      }
+    } finally {
+      image.close();
+    }
+    handler.obtainMessage(message, width, height, data).sendToTarget();
+  }
+
+  // Camera thread
+  private void closeParkedImage() {
+    if (parkedImage != null) {
+      parkedImage.close();
+      parkedImage = null;
+    }
+  }
+
+  private byte[] obtainFrameBuffer(int size) {
+    synchronized (frameBuffers) {
+      byte[] buffer = freeFrameBuffers.poll();
+      if (buffer == null || buffer.length != size) {
+        if (buffer != null) {
+          // The stream size changed; the old buffers go away one by one
+          frameBuffers.remove(buffer);
+        }
+        buffer = new byte[size];
+        frameBuffers.add(buffer);
+      }
+      return buffer;
+    }
+  }
+
+  @Override
+  public void releasePreviewFrame(byte[] data) {
+    if (data == null) {
+      return;
+    }
+    synchronized (frameBuffers) {
+      if (frameBuffers.contains(data) && !freeFrameBuffers.contains(data)) {
+        freeFrameBuffers.add(data);
+      }
+    }
+  }
+
+  @Override
+  public void onDecodeResult(boolean decoded) {
+    // Focus is left to the AF mode in the repeating request
+  }
+
+  @Override
+  public synchronized boolean getTorchState() {
+    return device != null && torch && hasFlash();
+  }
+
+  @Override
+  public synchronized void setTorch(boolean newSetting) {
+    if (device == null || torch == newSetting) {
+      return;
+    }
+    torch = newSetting;
+    if (session != null) {
+      updateRepeatingRequest();
+    }
+  }
+
+  // Visible for testing
+  synchronized Handler getCameraHandler() {
+    return cameraHandler;
+  }
+
+  private void startCameraThread() {
+    if (cameraThread == null) {
+      cameraThread = new HandlerThread("CameraBackground");
+      cameraThread.start();
+      cameraHandler = new Handler(cameraThread.getLooper());
+    }
+  }
+
+  /**
+   * Waits for the device to open. A device that opens only after we gave up is closed right away.
+   * Uses its own lock: the callback runs on the camera thread while the caller holds the backend.
+   * Once {@link #await()} has returned, losing the device is reported to the backend.
+   */
+  private static final class OpenCallback extends CameraDevice.StateCallback {
+
+    private final Camera2CaptureBackend backend;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private CameraDevice opened;
+    private boolean abandoned;
+
+    OpenCallback(Camera2CaptureBackend backend) {
+      this.backend = backend;
+    }
+
+    @Override
+    public void onOpened(CameraDevice camera) {
+      synchronized (this) {
+        if (abandoned) {
+          camera.close();
+        } else {
+          opened = camera;
+        }
+      }
+      latch.countDown();
+    }
+
+    @Override
+    public void onDisconnected(CameraDevice camera) {
+      Log.w(TAG, "Camera disconnected");
+      onLost(camera, 0);
+    }
+
+    @Override
+    public void onError(CameraDevice camera, int error) {
+      Log.w(TAG, "Camera error " + error);
+      onLost(camera, error);
+    }
+
+    private void onLost(CameraDevice camera, int error) {
+      synchronized (this) {
+        if (!abandoned) {
+          // Still opening: open() fails
+          if (opened == camera) {
+            opened = null;
+          }
+          camera.close();
+          latch.countDown();
+          return;
+        }
+      }
+      // Not under our lock: open() takes it while holding the backend lock
+      backend.onDeviceLost(camera, error);
+    }
+
+    CameraDevice await() {
+      try {
+        latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+        abandoned = true;
+        return opened;
+      }
+    }
+  }
+}
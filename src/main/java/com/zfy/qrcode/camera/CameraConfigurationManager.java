@@ -19,6 +19,7 @@ package com.zfy.qrcode.camera;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -26,10 +27,14 @@ import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import com.zfy.qrcode.QrCode;
 import com.zfy.qrcode.camera.open.CameraFacing;
 import com.zfy.qrcode.camera.open.OpenCamera;
 import com.zfy.qrcode.utils.ZxConstants;
 
+import java.io.File;
+import java.util.List;
+
 /**
  * A class which deals with reading, parsing, and setting the camera parameters which are used to
  * configure the camera hardware.
@@ -46,6 +51,21 @@ final class CameraConfigurationManager {
   private Point cameraResolution;
   private Point bestPreviewSize;
   private Point previewSizeOnScreen;
+  private Point screenPreviewSize; // chosen by matching the screen, before any PreviewSizePolicy
+  private List<Point> supportedPreviewSizes;
+  private String focusMode;
+  private File profileFile;
+  private CameraProfile profile;
+
+  // Scanner preferences, read from disk once per camera session
+  private boolean settingsLoaded;
+  private boolean autoFocus;
+  private boolean disableContinuousFocus;
+  private boolean invertScan;
+  private boolean barcodeSceneMode;
+  private boolean metering;
+  private boolean exposure;
+  private FrontLightMode frontLightMode;
 
   CameraConfigurationManager(Context context) {
     this.context = context;
@@ -55,7 +75,99 @@ final class CameraConfigurationManager {
    * Reads, one time, values from the camera that are needed by the app.
    */
   void initFromCameraParameters(OpenCamera camera) {
+    loadSettings();
+    initRotation(camera.getFacing(), camera.getOrientation());
+
+    profileFile = QrCode.QR_CAMERA_PROFILE_ENABLE
+        ? CameraProfile.fileFor(context.getCacheDir(), camera.getIndex()) : null;
+    profile = CameraProfile.read(profileFile, screenResolution, settingsSignature());
+    if (profile != null) {
+      Log.i(TAG, "Using saved camera profile; preview size " + profile.screenPreviewSize);
+      cameraResolution = new Point(profile.screenPreviewSize.x, profile.screenPreviewSize.y);
+      bestPreviewSize = new Point(profile.screenPreviewSize.x, profile.screenPreviewSize.y);
+      screenPreviewSize = new Point(profile.screenPreviewSize.x, profile.screenPreviewSize.y);
+      supportedPreviewSizes = profile.supportedPreviewSizes;
+      initPreviewSizeOnScreen();
+      return;
+    }
+
     Camera.Parameters parameters = camera.getCamera().getParameters();
+    cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+    Log.i(TAG, "Camera resolution: " + cameraResolution);
+    bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+    Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+    screenPreviewSize = new Point(bestPreviewSize.x, bestPreviewSize.y);
+    supportedPreviewSizes = CameraConfigurationUtils.getSupportedPreviewSizes(parameters);
+    initPreviewSizeOnScreen();
+  }
+
+  /**
+   * Like {@link #initFromCameraParameters(OpenCamera)}, for a camera opened through Camera2.
+   *
+   * @param facing         which way the camera faces
+   * @param orientation    clockwise rotation of the sensor from the natural orientation of the device
+   * @param supportedSizes output sizes the camera can deliver both to the display and to the decoder
+   */
+  void initFromCameraCharacteristics(CameraFacing facing, int orientation, List<Point> supportedSizes) {
+    loadSettings();
+    initRotation(facing, orientation);
+    Point defaultSize = supportedSizes.isEmpty() ? null : supportedSizes.get(0);
+    cameraResolution =
+        CameraConfigurationUtils.findBestPreviewSizeValue(supportedSizes, defaultSize, screenResolution);
+    Log.i(TAG, "Camera resolution: " + cameraResolution);
+    bestPreviewSize = new Point(cameraResolution.x, cameraResolution.y);
+    Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+    screenPreviewSize = new Point(bestPreviewSize.x, bestPreviewSize.y);
+    supportedPreviewSizes = supportedSizes;
+    initPreviewSizeOnScreen();
+  }
+
+  /**
+   * Replaces the preview size with the one the policy chooses for its current level. Takes effect
+   * on the camera through {@link #setPreviewSize(Camera)} or the next configuration.
+   *
+   * @return {@code true} if the preview size changed
+   */
+  boolean applyPreviewSizePolicy(PreviewSizePolicy policy, Rect framingRect) {
+    if (screenPreviewSize == null) {
+      return false;
+    }
+    Point size = policy.choose(supportedPreviewSizes, screenPreviewSize, screenResolution, framingRect);
+    if (size.x == cameraResolution.x && size.y == cameraResolution.y) {
+      return false;
+    }
+    Log.i(TAG, "Preview size for decoder level " + policy.getLevel() + ": " + size);
+    cameraResolution = new Point(size.x, size.y);
+    bestPreviewSize = new Point(size.x, size.y);
+    initPreviewSizeOnScreen();
+    return true;
+  }
+
+  /**
+   * Sets only the preview size on a running camera, after {@link #applyPreviewSizePolicy}. The
+   * preview has to be stopped.
+   */
+  void setPreviewSize(Camera camera) {
+    Camera.Parameters parameters = camera.getParameters();
+    if (parameters == null) {
+      return;
+    }
+    parameters.setPreviewSize(bestPreviewSize.x, bestPreviewSize.y);
+    try {
+      camera.setParameters(parameters);
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Camera rejected preview size " + bestPreviewSize.x + 'x' + bestPreviewSize.y);
+    }
+    Camera.Size afterSize = camera.getParameters().getPreviewSize();
+    if (afterSize != null && (bestPreviewSize.x != afterSize.width || bestPreviewSize.y != afterSize.height)) {
+      // Frames are reported with the camera resolution, so both have to follow the driver
+      bestPreviewSize = new Point(afterSize.width, afterSize.height);
+      cameraResolution = new Point(afterSize.width, afterSize.height);
+      initPreviewSizeOnScreen();
+    }
+  }
+
+  private void initRotation(CameraFacing facing, int cwRotationFromNaturalToCamera) {
     WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
     Display display = manager.getDefaultDisplay();
 
@@ -84,11 +196,10 @@ final class CameraConfigurationManager {
     }
     Log.i(TAG, "Display at: " + cwRotationFromNaturalToDisplay);
 
-    int cwRotationFromNaturalToCamera = camera.getOrientation();
     Log.i(TAG, "Camera at: " + cwRotationFromNaturalToCamera);
 
     // Still not 100% sure about this. But acts like we need to flip this:
-    if (camera.getFacing() == CameraFacing.FRONT) {
+    if (facing == CameraFacing.FRONT) {
       cwRotationFromNaturalToCamera = (360 - cwRotationFromNaturalToCamera) % 360;
       Log.i(TAG, "Front camera overriden to: " + cwRotationFromNaturalToCamera);
     }
@@ -96,7 +207,7 @@ final class CameraConfigurationManager {
     /*
     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
     String overrideRotationString;
-    if (camera.getFacing() == CameraFacing.FRONT) {
+    if (facing == CameraFacing.FRONT) {
       overrideRotationString = prefs.getString(ZxConstants.KEY_FORCE_CAMERA_ORIENTATION_FRONT, null);
     } else {
       overrideRotationString = prefs.getString(ZxConstants.KEY_FORCE_CAMERA_ORIENTATION, null);
@@ -110,7 +221,7 @@ final class CameraConfigurationManager {
     cwRotationFromDisplayToCamera =
         (360 + cwRotationFromNaturalToCamera - cwRotationFromNaturalToDisplay) % 360;
     Log.i(TAG, "Final display orientation: " + cwRotationFromDisplayToCamera);
-    if (camera.getFacing() == CameraFacing.FRONT) {
+    if (facing == CameraFacing.FRONT) {
       Log.i(TAG, "Compensating rotation for front camera");
       cwNeededRotation = (360 - cwRotationFromDisplayToCamera) % 360;
     } else {
@@ -122,11 +233,9 @@ final class CameraConfigurationManager {
     display.getSize(theScreenResolution);
     screenResolution = theScreenResolution;
     Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
-    cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
-    Log.i(TAG, "Camera resolution: " + cameraResolution);
-    bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
-    Log.i(TAG, "Best available preview size: " + bestPreviewSize);
+  }
 
+  private void initPreviewSizeOnScreen() {
     boolean isScreenPortrait = screenResolution.x < screenResolution.y;
     boolean isPreviewSizePortrait = bestPreviewSize.x < bestPreviewSize.y;
 
@@ -148,32 +257,30 @@ final class CameraConfigurationManager {
       return;
     }
 
-    Log.i(TAG, "Initial camera parameters: " + parameters.flatten());
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, "Initial camera parameters: " + parameters.flatten());
+    }
 
     if (safeMode) {
       Log.w(TAG, "In camera config safe mode -- most settings will not be honored");
     }
 
-    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    loadSettings();
 
-    initializeTorch(parameters, prefs, safeMode);
+    initializeTorch(parameters, safeMode);
 
-    CameraConfigurationUtils.setFocus(
-        parameters,
-        prefs.getBoolean(ZxConstants.KEY_AUTO_FOCUS, true),
-        prefs.getBoolean(ZxConstants.KEY_DISABLE_CONTINUOUS_FOCUS, false),
-        safeMode);
+    CameraConfigurationUtils.setFocus(parameters, autoFocus, disableContinuousFocus, safeMode);
 
     if (!safeMode) {
-      if (prefs.getBoolean(ZxConstants.KEY_INVERT_SCAN, false)) {
+      if (invertScan) {
         CameraConfigurationUtils.setInvertColor(parameters);
       }
 
-      if (!prefs.getBoolean(ZxConstants.KEY_DISABLE_BARCODE_SCENE_MODE, true)) {
+      if (barcodeSceneMode) {
         CameraConfigurationUtils.setBarcodeSceneMode(parameters);
       }
 
-      if (!prefs.getBoolean(ZxConstants.KEY_DISABLE_METERING, true)) {
+      if (metering) {
         CameraConfigurationUtils.setVideoStabilization(parameters);
         CameraConfigurationUtils.setFocusArea(parameters);
         CameraConfigurationUtils.setMetering(parameters);
@@ -190,6 +297,7 @@ final class CameraConfigurationManager {
     theCamera.setParameters(parameters);
 
     theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
+    focusMode = parameters.getFocusMode();
 
     Camera.Parameters afterParameters = theCamera.getParameters();
     Camera.Size afterSize = afterParameters.getPreviewSize();
@@ -201,10 +309,142 @@ final class CameraConfigurationManager {
     }
   }
 
+  /**
+   * Configures the camera straight from the saved profile, without looking at what the driver
+   * supports. If the driver rejects it, the profile is dropped and {@code false} returned so the
+   * caller can fall back to {@link #setDesiredCameraParameters(OpenCamera, boolean)}.
+   *
+   * @return {@code true} if a profile was applied
+   */
+  boolean applyProfile(OpenCamera camera) {
+    CameraProfile theProfile = profile;
+    if (theProfile == null) {
+      return false;
+    }
+    Camera theCamera = camera.getCamera();
+    try {
+      Camera.Parameters parameters = theCamera.getParameters();
+      boolean safeMode = theProfile.safeMode;
+      initializeTorch(parameters, safeMode);
+      if (theProfile.focusMode != null) {
+        parameters.setFocusMode(theProfile.focusMode);
+      }
+      if (!safeMode) {
+        if (theProfile.colorEffect != null) {
+          parameters.setColorEffect(theProfile.colorEffect);
+        }
+        if (theProfile.sceneMode != null) {
+          parameters.setSceneMode(theProfile.sceneMode);
+        }
+        if (metering) {
+          CameraConfigurationUtils.setVideoStabilization(parameters);
+          CameraConfigurationUtils.setFocusArea(parameters);
+          CameraConfigurationUtils.setMetering(parameters);
+        }
+        parameters.setRecordingHint(true);
+      }
+      if (theProfile.fpsRange != null) {
+        parameters.setPreviewFpsRange(theProfile.fpsRange[0], theProfile.fpsRange[1]);
+      }
+      parameters.setPreviewSize(bestPreviewSize.x, bestPreviewSize.y);
+      theCamera.setParameters(parameters);
+      theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
+      focusMode = theProfile.focusMode;
+      return true;
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Camera rejected the saved profile; configuring from scratch", re);
+      CameraProfile.delete(profileFile);
+      profile = null;
+      return false;
+    }
+  }
+
+  /**
+   * Saves what the full configuration ended up with, for {@link #applyProfile(OpenCamera)} on
+   * later opens.
+   *
+   * @param safeMode whether the camera only accepted safe-mode parameters
+   */
+  void saveProfile(OpenCamera camera, boolean safeMode) {
+    if (profileFile == null || screenPreviewSize == null) {
+      return;
+    }
+    try {
+      Camera.Parameters parameters = camera.getCamera().getParameters();
+      int[] fpsRange = new int[2];
+      parameters.getPreviewFpsRange(fpsRange);
+      profile = new CameraProfile(
+          new Point(screenPreviewSize.x, screenPreviewSize.y),
+          supportedPreviewSizes,
+          parameters.getFocusMode(),
+          fpsRange[1] > 0 ? fpsRange : null,
+          invertScan && !safeMode ? parameters.getColorEffect() : null,
+          barcodeSceneMode && !safeMode ? parameters.getSceneMode() : null,
+          safeMode);
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Unable to read back camera parameters for the profile", re);
+      return;
+    }
+    profile.write(profileFile, screenResolution, settingsSignature());
+  }
+
+  private void loadSettings() {
+    if (settingsLoaded) {
+      return;
+    }
+    settingsLoaded = true;
+    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    autoFocus = prefs.getBoolean(ZxConstants.KEY_AUTO_FOCUS, true);
+    disableContinuousFocus = prefs.getBoolean(ZxConstants.KEY_DISABLE_CONTINUOUS_FOCUS, false);
+    invertScan = prefs.getBoolean(ZxConstants.KEY_INVERT_SCAN, false);
+    barcodeSceneMode = !prefs.getBoolean(ZxConstants.KEY_DISABLE_BARCODE_SCENE_MODE, true);
+    metering = !prefs.getBoolean(ZxConstants.KEY_DISABLE_METERING, true);
+    exposure = !prefs.getBoolean(ZxConstants.KEY_DISABLE_EXPOSURE, true);
+    frontLightMode = FrontLightMode.readPref(prefs);
+  }
+
+  // The preferences that decide what goes into a profile; torch, exposure and metering are applied anew
+  private int settingsSignature() {
+    return (autoFocus ? 1 : 0)
+        | (disableContinuousFocus ? 2 : 0)
+        | (invertScan ? 4 : 0)
+        | (barcodeSceneMode ? 8 : 0);
+  }
+
+  boolean isAutoFocusEnabled() {
+    loadSettings();
+    return autoFocus;
+  }
+
+  boolean isContinuousFocusDisabled() {
+    loadSettings();
+    return disableContinuousFocus;
+  }
+
+  FrontLightMode getFrontLightMode() {
+    loadSettings();
+    return frontLightMode;
+  }
+
+  /**
+   * @return the focus mode set by the last configuration, or null before that
+   */
+  String getFocusMode() {
+    return focusMode;
+  }
+
   Point getBestPreviewSize() {
     return bestPreviewSize;
   }
 
+  /**
+   * @return the preview size matching the screen, for a display stream that is separate from the
+   *         frames handed to the decoder
+   */
+  Point getScreenPreviewSize() {
+    return screenPreviewSize;
+  }
+
   Point getPreviewSizeOnScreen() {
     return previewSizeOnScreen;
   }
@@ -240,15 +480,15 @@ final class CameraConfigurationManager {
     camera.setParameters(parameters);
   }
 
-  private void initializeTorch(Camera.Parameters parameters, SharedPreferences prefs, boolean safeMode) {
-    boolean currentSetting = FrontLightMode.readPref(prefs) == FrontLightMode.ON;
+  private void initializeTorch(Camera.Parameters parameters, boolean safeMode) {
+    boolean currentSetting = frontLightMode == FrontLightMode.ON;
     doSetTorch(parameters, currentSetting, safeMode);
   }
 
   private void doSetTorch(Camera.Parameters parameters, boolean newSetting, boolean safeMode) {
     CameraConfigurationUtils.setTorch(parameters, newSetting);
-    SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-    if (!safeMode && !prefs.getBoolean(ZxConstants.KEY_DISABLE_EXPOSURE, true)) {
+    loadSettings();
+    if (!safeMode && exposure) {
       CameraConfigurationUtils.setBestExposure(parameters, newSetting);
     }
   }
@@ -22,6 +22,7 @@ import android.hardware.Camera;
 import android.os.Build;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -273,19 +274,100 @@ public final class CameraConfigurationUtils {
   public static Point findBestPreviewSizeValue(Camera.Parameters parameters, Point screenResolution) {
 
     List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
+    Camera.Size defaultPreview = parameters.getPreviewSize();
+    Point defaultSize = defaultPreview == null ? null : new Point(defaultPreview.width, defaultPreview.height);
     if (rawSupportedSizes == null) {
       Log.w(TAG, "Device returned no supported preview sizes; using default");
-      Camera.Size defaultSize = parameters.getPreviewSize();
       if (defaultSize == null) {
         throw new IllegalStateException("Parameters contained no preview size!");
       }
-      return new Point(defaultSize.width, defaultSize.height);
+      return defaultSize;
+    }
+
+    return findBestPreviewSizeValue(getSupportedPreviewSizes(parameters), defaultSize, screenResolution);
+  }
+
+  /**
+   * @return the supported preview sizes as points, empty if the device reports none
+   */
+  public static List<Point> getSupportedPreviewSizes(Camera.Parameters parameters) {
+    List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
+    if (rawSupportedSizes == null) {
+      return Collections.emptyList();
+    }
+    List<Point> supportedSizes = new ArrayList<>(rawSupportedSizes.size());
+    for (Camera.Size size : rawSupportedSizes) {
+      supportedSizes.add(new Point(size.width, size.height));
+    }
+    return supportedSizes;
+  }
+
+  /**
+   * Finds the smallest preview size, with an aspect ratio close to the screen, on which a code of
+   * {@code codeSide} screen pixels still covers at least {@code requiredPixels} preview pixels.
+   *
+   * @param supportedSizes   sizes the camera can deliver
+   * @param screenResolution screen size in the current orientation
+   * @param codeSide         side of the code on screen, in screen pixels
+   * @param requiredPixels   preview pixels the code needs to cover to be decodable
+   * @return the smallest such size, or null if no size is large enough
+   */
+  public static Point findDecodablePreviewSizeValue(List<Point> supportedSizes,
+                                                    Point screenResolution,
+                                                    int codeSide,
+                                                    int requiredPixels) {
+    double screenAspectRatio = screenResolution.x / (double) screenResolution.y;
+    boolean isScreenPortrait = screenResolution.x < screenResolution.y;
+
+    int minResolution = Integer.MAX_VALUE;
+    Point minResPreviewSize = null;
+    for (Point size : supportedSizes) {
+      int resolution = size.x * size.y;
+      if (resolution < MIN_PREVIEW_PIXELS || resolution >= minResolution) {
+        continue;
+      }
+
+      // In the orientation of the screen
+      boolean isCandidatePortrait = size.x < size.y;
+      int widthOnScreen = isCandidatePortrait == isScreenPortrait ? size.x : size.y;
+      int heightOnScreen = isCandidatePortrait == isScreenPortrait ? size.y : size.x;
+      double aspectRatio = widthOnScreen / (double) heightOnScreen;
+      if (Math.abs(aspectRatio - screenAspectRatio) > MAX_ASPECT_DISTORTION) {
+        continue;
+      }
+
+      double scale = Math.min(widthOnScreen / (double) screenResolution.x,
+                              heightOnScreen / (double) screenResolution.y);
+      if (codeSide * scale < requiredPixels) {
+        continue;
+      }
+      minResolution = resolution;
+      minResPreviewSize = size;
+    }
+    if (minResPreviewSize == null) {
+      return null;
     }
+    Point smallestSize = new Point(minResPreviewSize.x, minResPreviewSize.y);
+    Log.i(TAG, "Smallest preview size covering " + requiredPixels + " pixels per code: " + smallestSize);
+    return smallestSize;
+  }
+
+  /**
+   * Picks the preview size from a list of sizes, independent of the camera API that reported them.
+   *
+   * @param supportedSizes sizes the camera can deliver
+   * @param defaultSize    size to fall back on when none is suitable, may be null
+   * @param screenResolution screen size in the current orientation
+   * @return the chosen size
+   */
+  public static Point findBestPreviewSizeValue(List<Point> supportedSizes,
+                                               Point defaultSize,
+                                               Point screenResolution) {
 
     if (Log.isLoggable(TAG, Log.INFO)) {
       StringBuilder previewSizesString = new StringBuilder();
-      for (Camera.Size size : rawSupportedSizes) {
-        previewSizesString.append(size.width).append('x').append(size.height).append(' ');
+      for (Point size : supportedSizes) {
+        previewSizesString.append(size.x).append('x').append(size.y).append(' ');
       }
       Log.i(TAG, "Supported preview sizes: " + previewSizesString);
     }
@@ -294,10 +376,10 @@ public final class CameraConfigurationUtils {
 
     // Find a suitable size, with max resolution
     int maxResolution = 0;
-    Camera.Size maxResPreviewSize = null;
-    for (Camera.Size size : rawSupportedSizes) {
-      int realWidth = size.width;
-      int realHeight = size.height;
+    Point maxResPreviewSize = null;
+    for (Point size : supportedSizes) {
+      int realWidth = size.x;
+      int realHeight = size.y;
       int resolution = realWidth * realHeight;
       if (resolution < MIN_PREVIEW_PIXELS) {
         continue;
@@ -329,19 +411,18 @@ public final class CameraConfigurationUtils {
     // of the additional computation needed. We're likely to get here on newer Android 4+ devices, where
     // the CPU is much more powerful.
     if (maxResPreviewSize != null) {
-      Point largestSize = new Point(maxResPreviewSize.width, maxResPreviewSize.height);
+      Point largestSize = new Point(maxResPreviewSize.x, maxResPreviewSize.y);
       Log.i(TAG, "Using largest suitable preview size: " + largestSize);
       return largestSize;
     }
 
     // If there is nothing at all suitable, return current preview size
-    Camera.Size defaultPreview = parameters.getPreviewSize();
-    if (defaultPreview == null) {
+    if (defaultSize == null) {
       throw new IllegalStateException("Parameters contained no preview size!");
     }
-    Point defaultSize = new Point(defaultPreview.width, defaultPreview.height);
-    Log.i(TAG, "No suitable preview sizes, using default: " + defaultSize);
-    return defaultSize;
+    Point theDefaultSize = new Point(defaultSize.x, defaultSize.y);
+    Log.i(TAG, "No suitable preview sizes, using default: " + theDefaultSize);
+    return theDefaultSize;
   }
 
   private static String findSettableValue(String name,
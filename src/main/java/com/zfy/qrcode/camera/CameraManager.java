@@ -19,25 +19,27 @@ package com.zfy.qrcode.camera;
 import android.content.Context;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.hardware.Camera;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
 import com.google.zxing.PlanarYUVLuminanceSource;
-import com.zfy.qrcode.camera.open.OpenCamera;
+import com.zfy.qrcode.QrCode;
 import com.zfy.qrcode.camera.open.OpenCameraInterface;
 
 import java.io.IOException;
 
 /**
- * This object wraps the Camera service object and expects to be the only one talking to it. The
+ * This object wraps the camera service object and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
- * both preview and decoding.
+ * both preview and decoding. The camera API itself sits behind a {@link CaptureBackend}: the
+ * Camera2 one when {@link QrCode#QR_CAPTURE_BY_CAMERA2} is set and the device runs Lollipop or
+ * later, otherwise the legacy {@link android.hardware.Camera} one. With
+ * {@link QrCode#QR_PREVIEW_SIZE_BY_DECODE} the preview size comes from a {@link PreviewSizePolicy}.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
-@SuppressWarnings("deprecation") // camera APIs
 public final class CameraManager {
 
   private static final String TAG = CameraManager.class.getSimpleName();
@@ -47,27 +49,32 @@ public final class CameraManager {
   private static final int MAX_FRAME_WIDTH  = 1200; // = 5/8 * 1920
   private static final int MAX_FRAME_HEIGHT = 675; // = 5/8 * 1080
 
-  private final Context                    context;
   private final CameraConfigurationManager configManager;
-  private       OpenCamera                 camera;
-  private       AutoFocusManager           autoFocusManager;
+  private final CaptureBackend             backend;
+  // Serializes opening and closing; the slow backend calls run under this lock only, so the UI
+  // thread never waits on the monitor for a camera still being opened in the background
+  private final Object                     openLock = new Object();
+  // Set once the device is open and configured, read without any lock
+  private volatile boolean                 ready;
   private       Rect                       framingRect;
   private       Rect                       framingRectInPreview;
+  private       Rect                       framingRectInRotatedPreview;
   private       boolean                    initialized;
-  private       boolean                    previewing;
   private       int                        requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
   private       int                        requestedFramingRectWidth;
   private       int                        requestedFramingRectHeight;
-  /**
-   * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
-   * clear the handler so it will only receive one message.
-   */
-  private final PreviewCallback            previewCallback;
+  private final PreviewSizePolicy          previewSizePolicy = new PreviewSizePolicy();
 
   public CameraManager(Context context) {
-    this.context = context;
     this.configManager = new CameraConfigurationManager(context);
-    previewCallback = new PreviewCallback(configManager);
+    this.backend = createBackend(context, configManager);
+  }
+
+  private static CaptureBackend createBackend(Context context, CameraConfigurationManager configManager) {
+    if (QrCode.QR_CAPTURE_BY_CAMERA2 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+      return new Camera2CaptureBackend(context, configManager);
+    }
+    return new LegacyCaptureBackend(configManager);
   }
 
   /**
@@ -76,125 +83,195 @@ public final class CameraManager {
    * @param holder The surface object which the camera will draw preview frames into.
    * @throws IOException Indicates the camera driver failed to open.
    */
-  public synchronized void openDriver(SurfaceHolder holder) throws IOException {
-    OpenCamera theCamera = camera;
-    if (theCamera == null) {
-      theCamera = OpenCameraInterface.open(requestedCameraId);
-      if (theCamera == null) {
-        throw new IOException("Camera.open() failed to return object from driver");
-      }
-      camera = theCamera;
-    }
+  public void openDriver(SurfaceHolder holder) throws IOException {
+    openDriver();
+    setPreviewDisplay(holder);
+  }
 
-    if (!initialized) {
-      initialized = true;
-      configManager.initFromCameraParameters(theCamera);
-      if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
-        setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
-        requestedFramingRectWidth = 0;
-        requestedFramingRectHeight = 0;
+  /**
+   * Opens the camera driver and initializes the hardware parameters, without a preview display.
+   * This is the slow part of starting the camera and needs no surface, so it may run on a
+   * background thread while the surface is being created; {@link #setPreviewDisplay} follows once
+   * both are ready. With the legacy camera API, callbacks are delivered on the looper of the
+   * calling thread, which therefore has to keep running until {@link #closeDriver()}.
+   * <p>
+   * Does not hold this object's monitor while the device opens: until it returns, the framing
+   * rect getters answer {@code null} and {@link #isOpen()} {@code false} right away instead of
+   * blocking the caller.
+   *
+   * @throws IOException Indicates the camera driver failed to open.
+   */
+  public void openDriver() throws IOException {
+    synchronized (openLock) {
+      if (!backend.isOpen()) {
+        int cameraId;
+        synchronized (this) {
+          cameraId = requestedCameraId;
+        }
+        backend.open(cameraId);
       }
-    }
 
-    Camera cameraObject = theCamera.getCamera();
-    Camera.Parameters parameters = cameraObject.getParameters();
-    String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
-    try {
-      configManager.setDesiredCameraParameters(theCamera, false);
-    } catch (RuntimeException re) {
-      // Driver failed
-      Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
-      Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
-      // Reset:
-      if (parametersFlattened != null) {
-        parameters = cameraObject.getParameters();
-        parameters.unflatten(parametersFlattened);
-        try {
-          cameraObject.setParameters(parameters);
-          configManager.setDesiredCameraParameters(theCamera, true);
-        } catch (RuntimeException re2) {
-          // Well, darn. Give up
-          Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+      boolean firstOpen;
+      synchronized (this) {
+        firstOpen = !initialized;
+      }
+      if (firstOpen) {
+        backend.readConfiguration();
+        synchronized (this) {
+          initialized = true;
+          if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
+            setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
+            requestedFramingRectWidth = 0;
+            requestedFramingRectHeight = 0;
+          }
+          applyPreviewSizePolicy();
         }
       }
+
+      backend.configure();
+      ready = true;
     }
-    cameraObject.setPreviewDisplay(holder);
+  }
 
+  /**
+   * Attaches the preview display to a camera opened by {@link #openDriver()}. Must be called on
+   * the UI thread.
+   *
+   * @param holder The surface object which the camera will draw preview frames into.
+   * @throws IOException Indicates the camera is not open or rejected the surface.
+   */
+  public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+    backend.setPreviewDisplay(holder);
   }
 
-  public synchronized boolean isOpen() {
-    return camera != null;
+  public boolean isOpen() {
+    return ready && backend.isOpen();
+  }
+
+  /**
+   * Reports a camera that was disconnected or failed after it opened. The preview is already
+   * stopped when the message arrives, with the error code in {@code arg1}; the driver still has to
+   * be closed with {@link #closeDriver()}.
+   *
+   * @param handler The handler to send the message to.
+   * @param message The what field of the message to be sent.
+   */
+  public synchronized void setErrorHandler(Handler handler, int message) {
+    backend.setErrorHandler(handler, message);
   }
 
   /**
    * Closes the camera driver if still in use.
    */
-  public synchronized void closeDriver() {
-    if (camera != null) {
-      camera.getCamera().release();
-      camera = null;
-      // Make sure to clear these each time we close the camera, so that any scanning rect
-      // requested by intent is forgotten.
-      framingRect = null;
-      framingRectInPreview = null;
+  public void closeDriver() {
+    synchronized (openLock) {
+      ready = false;
+      // Also after the device was lost, to release the rest of the backend
+      backend.close();
+      synchronized (this) {
+        // Make sure to clear these each time we close the camera, so that any scanning rect
+        // requested by intent is forgotten.
+        framingRect = null;
+        framingRectInPreview = null;
+        framingRectInRotatedPreview = null;
+      }
+    }
+  }
+
+  /**
+   * Switches the preview to the size the {@link PreviewSizePolicy} picks for the given level. Before
+   * the camera is opened the level is only remembered. A running preview is restarted, so any
+   * outstanding {@link #requestPreviewFrame(Handler, int)} has to be made again.
+   *
+   * @param level expected code density, from 0 (sparse codes, smallest frames) up to
+   *              {@link PreviewSizePolicy#getLevelCount()} - 1 (frames matching the screen)
+   * @return {@code true} if the preview size changed
+   */
+  public synchronized boolean setPreviewSizeLevel(int level) {
+    if (!previewSizePolicy.setLevel(level) || !ready) {
+      return false;
+    }
+    if (!applyPreviewSizePolicy()) {
+      return false;
+    }
+    backend.updatePreviewSize();
+    return true;
+  }
+
+  /**
+   * Moves the {@link PreviewSizePolicy} one level up, for codes denser than expected.
+   *
+   * @return {@code true} if the preview size changed; see {@link #setPreviewSizeLevel(int)}
+   */
+  public synchronized boolean stepUpPreviewSize() {
+    return setPreviewSizeLevel(previewSizePolicy.getLevel() + 1);
+  }
+
+  public synchronized int getPreviewSizeLevel() {
+    return previewSizePolicy.getLevel();
+  }
+
+  // The zbar crop rect comes from the app in preview coordinates, so its preview size stays fixed
+  private boolean applyPreviewSizePolicy() {
+    if (!QrCode.QR_PREVIEW_SIZE_BY_DECODE || QrCode.QR_DECODE_CAPTURE_BY_ZBAR) {
+      return false;
+    }
+    // Smaller frames would also mean a blurry on-screen preview
+    if (!backend.hasIndependentDisplaySize() && !QrCode.QR_PREVIEW_SIZE_BY_DECODE_LEGACY) {
+      return false;
+    }
+    if (!configManager.applyPreviewSizePolicy(previewSizePolicy, computeFramingRect())) {
+      return false;
     }
+    framingRectInPreview = null;
+    framingRectInRotatedPreview = null;
+    return true;
   }
 
   /**
    * Asks the camera hardware to begin drawing preview frames to the screen.
    */
   public synchronized void startPreview() {
-    OpenCamera theCamera = camera;
-    if (theCamera != null && !previewing) {
-      theCamera.getCamera().startPreview();
-      previewing = true;
-      autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
-    }
+    backend.startPreview();
+  }
+
+  /**
+   * Sizes the ring of recycled preview buffers to the number of frames the consumer may hold at
+   * once, plus one for the camera to fill meanwhile. Otherwise the camera runs out of buffers and
+   * drops frames while every buffer is being decoded. Call before {@link #startPreview()}.
+   *
+   * @param heldFrames the most frames held by the consumer at the same time
+   */
+  public synchronized void setPreviewBufferCount(int heldFrames) {
+    backend.setPreviewBufferCount(heldFrames + 1);
   }
 
   /**
    * Tells the camera to stop drawing preview frames.
    */
   public synchronized void stopPreview() {
-    if (autoFocusManager != null) {
-      autoFocusManager.stop();
-      autoFocusManager = null;
-    }
-    if (camera != null && previewing) {
-      camera.getCamera().stopPreview();
-      previewCallback.setHandler(null, 0);
-      previewing = false;
-    }
+    backend.stopPreview();
   }
 
   public synchronized boolean toggleTorch() {
-    OpenCamera theCamera = camera;
-    boolean torchState = configManager.getTorchState(theCamera.getCamera());
+    if (!ready) {
+      return false;
+    }
+    boolean torchState = backend.getTorchState();
     setTorch(!torchState);
     return !torchState;
   }
 
   public synchronized boolean getTorchState() {
-    OpenCamera theCamera = camera;
-    return configManager.getTorchState(theCamera.getCamera());
+    return ready && backend.getTorchState();
   }
 
   /**
    * @param newSetting if {@code true}, light should be turned on if currently off. And vice versa.
    */
   public synchronized void setTorch(boolean newSetting) {
-    OpenCamera theCamera = camera;
-    if (theCamera != null && newSetting != configManager.getTorchState(theCamera.getCamera())) {
-      boolean wasAutoFocusManager = autoFocusManager != null;
-      if (wasAutoFocusManager) {
-        autoFocusManager.stop();
-        autoFocusManager = null;
-      }
-      configManager.setTorch(theCamera.getCamera(), newSetting);
-      if (wasAutoFocusManager) {
-        autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
-        autoFocusManager.start();
-      }
+    if (ready) {
+      backend.setTorch(newSetting);
     }
   }
 
@@ -207,11 +284,29 @@ public final class CameraManager {
    * @param message The what field of the message to be sent.
    */
   public synchronized void requestPreviewFrame(Handler handler, int message) {
-    OpenCamera theCamera = camera;
-    if (theCamera != null && previewing) {
-      previewCallback.setHandler(handler, message);
-      theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
-    }
+    backend.requestPreviewFrame(handler, message);
+  }
+
+  /**
+   * Gives a frame obtained through {@link #requestPreviewFrame(Handler, int)} back to the camera
+   * once the decoder is done with it. Frames from one-shot callbacks or from an earlier preview
+   * session are ignored.
+   *
+   * @param data The preview frame that was delivered in message.obj.
+   */
+  public void releasePreviewFrame(byte[] data) {
+    backend.releasePreviewFrame(data);
+  }
+
+  /**
+   * Reports whether the decoder read a code from a frame obtained through
+   * {@link #requestPreviewFrame(Handler, int)}. Autofocus holds while codes are being read and
+   * refocuses when decodes keep failing.
+   *
+   * @param decoded {@code true} if the frame contained a code
+   */
+  public void onDecodeResult(boolean decoded) {
+    backend.onDecodeResult(decoded);
   }
 
   /**
@@ -219,13 +314,18 @@ public final class CameraManager {
    * barcode. This target helps with alignment as well as forces the user to hold the device
    * far enough away to ensure the image will be in focus.
    *
-   * @return The rectangle to draw on screen in window coordinates.
+   * @return The rectangle to draw on screen in window coordinates, or null until the camera is open.
    */
   public synchronized Rect getFramingRect() {
+    if (!ready) {
+      return null;
+    }
+    return computeFramingRect();
+  }
+
+  // Also used while opening, before the camera is ready
+  private Rect computeFramingRect() {
     if (framingRect == null) {
-      if (camera == null) {
-        return null;
-      }
       Point screenResolution = configManager.getScreenResolution();
       if (screenResolution == null) {
         // Called early, before init even finished
@@ -282,6 +382,36 @@ public final class CameraManager {
     return framingRectInPreview;
   }
 
+  /**
+   * Like {@link #getFramingRectInPreview} but in terms of preview frames after they have been
+   * rotated by {@link #getCWNeededRotation()}, which makes them share the orientation of the screen.
+   *
+   * @return {@link Rect} expressing barcode scan area in terms of the rotated preview size
+   */
+  public synchronized Rect getFramingRectInRotatedPreview() {
+    if (framingRectInRotatedPreview == null) {
+      Rect framingRect = getFramingRect();
+      if (framingRect == null) {
+        return null;
+      }
+      Point cameraResolution = configManager.getCameraResolution();
+      Point screenResolution = configManager.getScreenResolution();
+      if (cameraResolution == null || screenResolution == null) {
+        // Called early, before init even finished
+        return null;
+      }
+      boolean swapped = configManager.getCWNeededRotation() % 180 != 0;
+      int frameWidth = swapped ? cameraResolution.y : cameraResolution.x;
+      int frameHeight = swapped ? cameraResolution.x : cameraResolution.y;
+      framingRectInRotatedPreview = new Rect(
+          framingRect.left * frameWidth / screenResolution.x,
+          framingRect.top * frameHeight / screenResolution.y,
+          framingRect.right * frameWidth / screenResolution.x,
+          framingRect.bottom * frameHeight / screenResolution.y);
+    }
+    return framingRectInRotatedPreview;
+  }
+
 
   /**
    * Allows third party apps to specify the camera ID, rather than determine
@@ -314,6 +444,7 @@ public final class CameraManager {
       framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
       Log.d(TAG, "Calculated manual framing rect: " + framingRect);
       framingRectInPreview = null;
+      framingRectInRotatedPreview = null;
     } else {
       requestedFramingRectWidth = width;
       requestedFramingRectHeight = height;
@@ -342,4 +473,11 @@ public final class CameraManager {
   public Point getCameraResolution() {
     return configManager.getCameraResolution();
   }
+
+  /**
+   * @return clockwise rotation, in degrees, needed to turn preview frames upright on the display
+   */
+  public int getCWNeededRotation() {
+    return configManager.getCWNeededRotation();
+  }
 }
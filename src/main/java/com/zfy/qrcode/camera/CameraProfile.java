@@ -0,0 +1,179 @@
+package com.zfy.qrcode.camera;
+
+import android.graphics.Point;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the first full configuration of a camera found out, so later opens can skip it: the
+ * supported preview sizes and the one matching the screen, the focus mode, FPS range, color effect
+ * and scene mode the driver ended up with, and whether it only accepted safe-mode parameters.
+ * <p>
+ * One small binary file per camera. It only applies to the same build of the system, the same
+ * camera, the same screen size in the current orientation and the same scanner preferences;
+ * anything else reads as a miss and the camera is configured from scratch again.
+ */
+final class CameraProfile {
+
+  private static final String TAG = CameraProfile.class.getSimpleName();
+
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_SIZES      = 256;
+
+  final Point       screenPreviewSize;
+  final List<Point> supportedPreviewSizes;
+  final String      focusMode;
+  final int[]       fpsRange; // null if the driver reported none
+  final String      colorEffect;
+  final String      sceneMode;
+  final boolean     safeMode;
+
+  CameraProfile(Point screenPreviewSize, List<Point> supportedPreviewSizes, String focusMode,
+                int[] fpsRange, String colorEffect, String sceneMode, boolean safeMode) {
+    this.screenPreviewSize = screenPreviewSize;
+    this.supportedPreviewSizes = supportedPreviewSizes;
+    this.focusMode = focusMode;
+    this.fpsRange = fpsRange;
+    this.colorEffect = colorEffect;
+    this.sceneMode = sceneMode;
+    this.safeMode = safeMode;
+  }
+
+  static File fileFor(File dir, int cameraIndex) {
+    return new File(dir, "camera_profile_" + cameraIndex + ".bin");
+  }
+
+  /**
+   * @return the stored profile, or null if there is none or it was made under other conditions
+   */
+  static CameraProfile read(File file, Point screenResolution, int settingsSignature) {
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+      if (in.readInt() != FORMAT_VERSION
+          || !Build.FINGERPRINT.equals(in.readUTF())
+          || in.readInt() != screenResolution.x
+          || in.readInt() != screenResolution.y
+          || in.readInt() != settingsSignature) {
+        return null;
+      }
+      Point screenPreviewSize = new Point(in.readInt(), in.readInt());
+      int sizeCount = in.readInt();
+      if (sizeCount < 0 || sizeCount > MAX_SIZES) {
+        return null;
+      }
+      List<Point> sizes = new ArrayList<>(sizeCount);
+      for (int i = 0; i < sizeCount; i++) {
+        sizes.add(new Point(in.readInt(), in.readInt()));
+      }
+      String focusMode = readOptionalUTF(in);
+      int[] fpsRange = null;
+      if (in.readBoolean()) {
+        fpsRange = new int[] {in.readInt(), in.readInt()};
+      }
+      String colorEffect = readOptionalUTF(in);
+      String sceneMode = readOptionalUTF(in);
+      boolean safeMode = in.readBoolean();
+      return new CameraProfile(screenPreviewSize, Collections.unmodifiableList(sizes), focusMode,
+          fpsRange, colorEffect, sceneMode, safeMode);
+    } catch (IOException e) {
+      Log.w(TAG, "Unreadable camera profile " + file, e);
+      return null;
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  /**
+   * Writes to a temporary file first, so a crash halfway never leaves a truncated profile behind.
+   */
+  void write(File file, Point screenResolution, int settingsSignature) {
+    File dir = file.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      return;
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024));
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(Build.FINGERPRINT);
+      out.writeInt(screenResolution.x);
+      out.writeInt(screenResolution.y);
+      out.writeInt(settingsSignature);
+      out.writeInt(screenPreviewSize.x);
+      out.writeInt(screenPreviewSize.y);
+      int sizeCount = Math.min(supportedPreviewSizes.size(), MAX_SIZES);
+      out.writeInt(sizeCount);
+      for (int i = 0; i < sizeCount; i++) {
+        Point size = supportedPreviewSizes.get(i);
+        out.writeInt(size.x);
+        out.writeInt(size.y);
+      }
+      writeOptionalUTF(out, focusMode);
+      out.writeBoolean(fpsRange != null);
+      if (fpsRange != null) {
+        out.writeInt(fpsRange[0]);
+        out.writeInt(fpsRange[1]);
+      }
+      writeOptionalUTF(out, colorEffect);
+      writeOptionalUTF(out, sceneMode);
+      out.writeBoolean(safeMode);
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+        Log.w(TAG, "rename " + tmp + " failed");
+      }
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    } finally {
+      closeQuietly(out);
+      if (tmp.exists() && !tmp.delete()) {
+        Log.w(TAG, "delete " + tmp + " failed");
+      }
+    }
+  }
+
+  static void delete(File file) {
+    if (file != null && file.exists() && !file.delete()) {
+      Log.w(TAG, "delete " + file + " failed");
+    }
+  }
+
+  private static String readOptionalUTF(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeOptionalUTF(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.zfy.qrcode.camera;
+
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * The camera API used to capture preview frames. {@link CameraManager} talks to exactly one of
+ * these and keeps everything that does not depend on the API (framing rect, rotation, screen
+ * size) to itself.
+ * <p>
+ * Frames are always handed over the same way, whichever API produced them: a message with the
+ * luminance plane in {@code obj} and the frame width and height in {@code arg1} and {@code arg2}.
+ * The first {@code width * height} bytes are the Y plane, row by row without padding, which is all
+ * the decoders read.
+ */
+interface CaptureBackend {
+
+  /**
+   * Opens the camera device. Blocks until the device is usable.
+   *
+   * @param requestedCameraId index of the camera to use, or a negative value for the first
+   *                          rear-facing one
+   * @throws IOException if the device could not be opened
+   */
+  void open(int requestedCameraId) throws IOException;
+
+  boolean isOpen();
+
+  /**
+   * Reads, one time, values from the opened device that are needed by the app, and stores them
+   * in the shared {@link CameraConfigurationManager}.
+   */
+  void readConfiguration();
+
+  /**
+   * Applies the desired parameters. Does not need the preview display, so it can run while the
+   * surface is still being created.
+   */
+  void configure() throws IOException;
+
+  /**
+   * Attaches the preview display. Called on the thread owning the surface, after
+   * {@link #configure()}. A backend that has to wait for the surface to change may defer
+   * {@link #startPreview()} until it has.
+   */
+  void setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+  /**
+   * Whether the on-screen preview keeps its own size. If not, the display shows the frames at the
+   * preview size, and a preview size chosen below the screen size makes it visibly blurry.
+   */
+  boolean hasIndependentDisplaySize();
+
+  /**
+   * Where to report that the device was lost after it opened: disconnected, evicted by another
+   * client or failed. The backend stops the preview and sends the message with the API's error
+   * code in {@code arg1}, {@code 0} for a disconnect. The device still has to be closed with
+   * {@link #close()}.
+   */
+  void setErrorHandler(Handler handler, int message);
+
+  /**
+   * Releases the device and everything created for it. Safe to call when the device is already
+   * closed or was lost.
+   */
+  void close();
+
+  /**
+   * Switches the camera to the preview size now held by the {@link CameraConfigurationManager}.
+   * A running preview is restarted, which drops any pending frame request.
+   */
+  void updatePreviewSize();
+
+  void startPreview();
+
+  void stopPreview();
+
+  /**
+   * How many preview buffers to cycle through, if the backend uses a fixed pool. Takes effect on
+   * the next {@link #startPreview()}.
+   */
+  void setPreviewBufferCount(int count);
+
+  /**
+   * Delivers a single preview frame to the handler. See {@link CameraManager#requestPreviewFrame}.
+   */
+  void requestPreviewFrame(Handler handler, int message);
+
+  /**
+   * Takes back a frame delivered through {@link #requestPreviewFrame} so its buffer can be reused.
+   * Unknown or stale frames are ignored.
+   */
+  void releasePreviewFrame(byte[] data);
+
+  /**
+   * Feedback from the decoder on a delivered frame, for backends that drive focus themselves.
+   */
+  void onDecodeResult(boolean decoded);
+
+  boolean getTorchState();
+
+  void setTorch(boolean newSetting);
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2008 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zfy.qrcode.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.camera.open.OpenCamera;
+import com.zfy.qrcode.camera.open.OpenCameraInterface;
+
+import java.io.IOException;
+
+/**
+ * {@link CaptureBackend} on top of {@link android.hardware.Camera}, which delivers NV21 frames
+ * either through one-shot callbacks or through a small ring of recycled callback buffers.
+ */
+@SuppressWarnings("deprecation") // camera APIs
+final class LegacyCaptureBackend implements CaptureBackend {
+
+  private static final String TAG = LegacyCaptureBackend.class.getSimpleName();
+
+  private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
+
+  private final CameraConfigurationManager configManager;
+  private       OpenCamera                 camera;
+  private       AutoFocusManager           autoFocusManager;
+  private       boolean                    previewing;
+  private       byte[][]                   previewBuffers;
+  private       int                        previewBufferCount = DEFAULT_PREVIEW_BUFFER_COUNT;
+  private       Handler                    errorHandler;
+  private       int                        errorMessage;
+  /**
+   * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
+   * clear the handler so it will only receive one message.
+   */
+  private final PreviewCallback            previewCallback;
+
+  LegacyCaptureBackend(CameraConfigurationManager configManager) {
+    this.configManager = configManager;
+    previewCallback = new PreviewCallback(configManager);
+  }
+
+  @Override
+  public synchronized void open(int requestedCameraId) throws IOException {
+    if (camera == null) {
+      OpenCamera theCamera = OpenCameraInterface.open(requestedCameraId);
+      if (theCamera == null) {
+        throw new IOException("Camera.open() failed to return object from driver");
+      }
+      camera = theCamera;
+      // Delivered on the looper of the opening thread
+      theCamera.getCamera().setErrorCallback(new Camera.ErrorCallback() {
+        @Override
+        public void onError(int error, Camera cameraObject) {
+          onCameraError(cameraObject, error);
+        }
+      });
+    }
+  }
+
+  @Override
+  public boolean hasIndependentDisplaySize() {
+    // Camera.setPreviewDisplay shows the preview frames themselves
+    return false;
+  }
+
+  @Override
+  public synchronized void setErrorHandler(Handler handler, int message) {
+    errorHandler = handler;
+    errorMessage = message;
+  }
+
+  private synchronized void onCameraError(Camera cameraObject, int error) {
+    OpenCamera theCamera = camera;
+    if (theCamera == null || theCamera.getCamera() != cameraObject) {
+      return;
+    }
+    Log.w(TAG, "Camera error " + error);
+    try {
+      stopPreview();
+    } catch (RuntimeException e) {
+      // The camera service may already be gone
+      Log.w(TAG, "Unable to stop preview", e);
+      previewing = false;
+    }
+    if (errorHandler != null) {
+      errorHandler.obtainMessage(errorMessage, error, 0).sendToTarget();
+    }
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return camera != null;
+  }
+
+  @Override
+  public synchronized void readConfiguration() {
+    configManager.initFromCameraParameters(camera);
+  }
+
+  @Override
+  public synchronized void configure() {
+    OpenCamera theCamera = camera;
+    Camera cameraObject = theCamera.getCamera();
+    if (configManager.applyProfile(theCamera)) {
+      return;
+    }
+    Camera.Parameters parameters = cameraObject.getParameters();
+    String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
+    boolean configured = false;
+    boolean safeMode = false;
+    try {
+      configManager.setDesiredCameraParameters(theCamera, false);
+      configured = true;
+    } catch (RuntimeException re) {
+      // Driver failed
+      Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
+      Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
+      // Reset:
+      if (parametersFlattened != null) {
+        parameters = cameraObject.getParameters();
+        parameters.unflatten(parametersFlattened);
+        try {
+          cameraObject.setParameters(parameters);
+          configManager.setDesiredCameraParameters(theCamera, true);
+          configured = true;
+          safeMode = true;
+        } catch (RuntimeException re2) {
+          // Well, darn. Give up
+          Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+        }
+      }
+    }
+    if (configured) {
+      configManager.saveProfile(theCamera, safeMode);
+    }
+  }
+
+  @Override
+  public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+    OpenCamera theCamera = camera;
+    if (theCamera == null) {
+      throw new IOException("Camera is not open");
+    }
+    theCamera.getCamera().setPreviewDisplay(holder);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (camera != null) {
+      camera.getCamera().release();
+      camera = null;
+    }
+  }
+
+  @Override
+  public synchronized void updatePreviewSize() {
+    OpenCamera theCamera = camera;
+    if (theCamera == null) {
+      return;
+    }
+    boolean wasPreviewing = previewing;
+    stopPreview();
+    configManager.setPreviewSize(theCamera.getCamera());
+    if (wasPreviewing) {
+      startPreview();
+    }
+  }
+
+  @Override
+  public synchronized void startPreview() {
+    OpenCamera theCamera = camera;
+    if (theCamera != null && !previewing) {
+      if (QrCode.QR_PREVIEW_WITH_BUFFER) {
+        setupPreviewBuffers(theCamera.getCamera());
+      }
+      theCamera.getCamera().startPreview();
+      previewing = true;
+      autoFocusManager = createAutoFocusManager(theCamera.getCamera());
+    }
+  }
+
+  private AutoFocusManager createAutoFocusManager(Camera cameraObject) {
+    AutoFocusManager manager =
+        new AutoFocusManager(cameraObject, configManager.getFocusMode(), configManager.isAutoFocusEnabled());
+    previewCallback.setAutoFocusManager(manager);
+    return manager;
+  }
+
+  @Override
+  public synchronized void stopPreview() {
+    if (autoFocusManager != null) {
+      autoFocusManager.stop();
+      autoFocusManager = null;
+      previewCallback.setAutoFocusManager(null);
+    }
+    if (camera != null && previewing) {
+      camera.getCamera().stopPreview();
+      if (previewBuffers != null) {
+        camera.getCamera().setPreviewCallbackWithBuffer(null);
+        previewCallback.setBufferMode(false);
+        // Frames still held by the decoder must not be queued again on the next start
+        previewBuffers = null;
+      }
+      previewCallback.setHandler(null, 0);
+      previewing = false;
+    }
+  }
+
+  /**
+   * Pre-allocates a small ring of preview buffers and installs the callback once, so the camera
+   * fills recycled arrays instead of allocating a new one per frame.
+   */
+  private void setupPreviewBuffers(Camera cameraObject) {
+    Camera.Parameters parameters = cameraObject.getParameters();
+    Camera.Size previewSize = parameters == null ? null : parameters.getPreviewSize();
+    if (previewSize == null) {
+      Log.w(TAG, "No preview size available; falling back to one-shot preview callbacks");
+      return;
+    }
+    int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+    if (bitsPerPixel <= 0) {
+      bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+    }
+    int bufferSize = previewSize.width * previewSize.height * bitsPerPixel / 8;
+    previewBuffers = new byte[previewBufferCount][];
+    for (int i = 0; i < previewBufferCount; i++) {
+      previewBuffers[i] = new byte[bufferSize];
+      cameraObject.addCallbackBuffer(previewBuffers[i]);
+    }
+    previewCallback.setBufferMode(true);
+    cameraObject.setPreviewCallbackWithBuffer(previewCallback);
+  }
+
+  @Override
+  public synchronized void setPreviewBufferCount(int count) {
+    previewBufferCount = Math.max(count, DEFAULT_PREVIEW_BUFFER_COUNT);
+  }
+
+  @Override
+  public synchronized void requestPreviewFrame(Handler handler, int message) {
+    OpenCamera theCamera = camera;
+    if (theCamera != null && previewing) {
+      if (previewBuffers != null) {
+        // The buffered callback stays installed; a parked frame is delivered immediately
+        previewCallback.requestFrame(handler, message);
+      } else {
+        previewCallback.setHandler(handler, message);
+        theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void releasePreviewFrame(byte[] data) {
+    OpenCamera theCamera = camera;
+    byte[][] buffers = previewBuffers;
+    if (theCamera == null || !previewing || buffers == null || data == null) {
+      return;
+    }
+    for (byte[] buffer : buffers) {
+      if (buffer == data) {
+        theCamera.getCamera().addCallbackBuffer(data);
+        return;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void onDecodeResult(boolean decoded) {
+    if (autoFocusManager != null) {
+      autoFocusManager.onDecodeResult(decoded);
+    }
+  }
+
+  @Override
+  public synchronized boolean getTorchState() {
+    OpenCamera theCamera = camera;
+    return theCamera != null && configManager.getTorchState(theCamera.getCamera());
+  }
+
+  @Override
+  public synchronized void setTorch(boolean newSetting) {
+    OpenCamera theCamera = camera;
+    if (theCamera != null && newSetting != configManager.getTorchState(theCamera.getCamera())) {
+      boolean wasAutoFocusManager = autoFocusManager != null;
+      if (wasAutoFocusManager) {
+        autoFocusManager.stop();
+        autoFocusManager = null;
+      }
+      configManager.setTorch(theCamera.getCamera(), newSetting);
+      if (wasAutoFocusManager) {
+        autoFocusManager = createAutoFocusManager(theCamera.getCamera());
+        autoFocusManager.start();
+      }
+    }
+  }
+}
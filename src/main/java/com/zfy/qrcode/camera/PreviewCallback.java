@@ -30,18 +30,69 @@ final class PreviewCallback implements Camera.PreviewCallback {
   private final CameraConfigurationManager configManager;
   private Handler previewHandler;
   private int previewMessage;
+  private boolean bufferMode;
+  private byte[] pendingFrame; // buffer mode only: newest frame nobody has asked for yet
+  private AutoFocusManager autoFocusManager;
 
   PreviewCallback(CameraConfigurationManager configManager) {
     this.configManager = configManager;
   }
 
-  void setHandler(Handler previewHandler, int previewMessage) {
+  /**
+   * In buffer mode the callback stays installed through
+   * {@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}, and frames that arrive
+   * while no handler is waiting are parked instead of being dropped.
+   */
+  synchronized void setBufferMode(boolean bufferMode) {
+    this.bufferMode = bufferMode;
+    pendingFrame = null;
+  }
+
+  /**
+   * Frames are shown to the given manager before they are delivered, so it can judge focus.
+   */
+  synchronized void setAutoFocusManager(AutoFocusManager autoFocusManager) {
+    this.autoFocusManager = autoFocusManager;
+  }
+
+  synchronized void setHandler(Handler previewHandler, int previewMessage) {
     this.previewHandler = previewHandler;
     this.previewMessage = previewMessage;
   }
 
+  /**
+   * Like {@link #setHandler(Handler, int)}, but hands over a parked frame right away if there is one,
+   * so the decoder does not have to wait for the next frame from the camera.
+   */
+  synchronized void requestFrame(Handler previewHandler, int previewMessage) {
+    setHandler(previewHandler, previewMessage);
+    byte[] frame = pendingFrame;
+    if (frame != null && deliver(frame)) {
+      pendingFrame = null;
+    }
+  }
+
   @Override
-  public void onPreviewFrame(byte[] data, Camera camera) {
+  public synchronized void onPreviewFrame(byte[] data, Camera camera) {
+    Point cameraResolution = configManager.getCameraResolution();
+    if (autoFocusManager != null && cameraResolution != null) {
+      autoFocusManager.onPreviewFrame(data, cameraResolution.x, cameraResolution.y);
+    }
+    if (deliver(data)) {
+      return;
+    }
+    if (bufferMode) {
+      // Keep only the newest frame; the older one goes straight back to the camera
+      if (pendingFrame != null) {
+        camera.addCallbackBuffer(pendingFrame);
+      }
+      pendingFrame = data;
+    } else {
+      Log.d(TAG, "Got preview callback, but no handler or resolution available");
+    }
+  }
+
+  private boolean deliver(byte[] data) {
     Point cameraResolution = configManager.getCameraResolution();
     Handler thePreviewHandler = previewHandler;
     if (cameraResolution != null && thePreviewHandler != null) {
@@ -49,9 +100,9 @@ final class PreviewCallback implements Camera.PreviewCallback {
           cameraResolution.y, data);
       message.sendToTarget();
       previewHandler = null;
-    } else {
-      Log.d(TAG, "Got preview callback, but no handler or resolution available");
+      return true;
     }
+    return false;
   }
 
 }
@@ -0,0 +1,77 @@
+package com.zfy.qrcode.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import java.util.List;
+
+/**
+ * Chooses the preview size from what the decoder needs rather than from the screen size. A code
+ * held up to the framing rect is decodable once every module covers a few preview pixels, so the
+ * smallest preview size giving the expected code density that many pixels inside the framing rect
+ * is enough; anything larger only makes every frame slower to copy, rotate and binarize.
+ * <p>
+ * The expected density goes up level by level, for example after repeated decode failures on a
+ * dense code. The last level has no limit and falls back to the size matching the screen. Levels
+ * only go up while scanning; {@link CameraManager#setPreviewSizeLevel(int)} with 0 starts over,
+ * which happens each time scanning restarts after a result.
+ * <p>
+ * Only the decoder stream gets smaller with Camera2, where the display keeps the screen-matched
+ * size. With the legacy API the display shows the preview frames themselves and turns blurry, so
+ * the policy is off there unless {@link com.zfy.qrcode.QrCode#QR_PREVIEW_SIZE_BY_DECODE_LEGACY}
+ * trades the sharper picture for faster frames.
+ */
+public final class PreviewSizePolicy {
+
+  // Modules across the expected code for each level: version 4, version 10, version 20, no limit
+  private static final int[]  LEVEL_MODULES     = {33, 57, 97, 0};
+  private static final float  PIXELS_PER_MODULE = 3.0f;
+  // The code rarely fills the framing rect edge to edge
+  private static final float  CODE_FILL         = 0.8f;
+
+  private int level;
+
+  public synchronized int getLevel() {
+    return level;
+  }
+
+  public int getLevelCount() {
+    return LEVEL_MODULES.length;
+  }
+
+  /**
+   * @param newLevel level to use from now on, clamped to the valid range
+   * @return {@code true} if the level changed
+   */
+  public synchronized boolean setLevel(int newLevel) {
+    newLevel = Math.max(0, Math.min(newLevel, LEVEL_MODULES.length - 1));
+    if (newLevel == level) {
+      return false;
+    }
+    level = newLevel;
+    return true;
+  }
+
+  /**
+   * @param supportedSizes   sizes the camera can deliver
+   * @param screenSize       size chosen by matching the screen, used when nothing smaller will do
+   * @param screenResolution screen size in the current orientation
+   * @param framingRect      framing rect in screen coordinates, may be null
+   * @return the preview size for the current level
+   */
+  synchronized Point choose(List<Point> supportedSizes, Point screenSize, Point screenResolution,
+                            Rect framingRect) {
+    int modules = LEVEL_MODULES[level];
+    if (modules <= 0 || framingRect == null) {
+      return screenSize;
+    }
+    int codeSide = (int) (Math.min(framingRect.width(), framingRect.height()) * CODE_FILL);
+    int requiredPixels = (int) Math.ceil(modules * PIXELS_PER_MODULE);
+    Point size = CameraConfigurationUtils.findDecodablePreviewSizeValue(
+        supportedSizes, screenResolution, codeSide, requiredPixels);
+    if (size == null || (long) size.x * size.y >= (long) screenSize.x * screenSize.y) {
+      return screenSize;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,214 @@
+package com.zfy.qrcode.decode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 相册图片批量解码。
+ * 在固定数量的后台线程上并行解码，每张图片解码前按估算的内存申请额度，
+ * 同时解码中的图片占用的内存不超过预算；每张图片的结果在主线程逐个回调，可以随时取消。
+ */
+public class AlbumBatchDecoder {
+
+    public static final String TAG = AlbumBatchDecoder.class.getSimpleName();
+
+    private static final int MAX_THREAD_COUNT = 4;
+    private static final int BYTES_PER_PERMIT = 1024; // Semaphore 的额度以 KB 为单位
+
+    /**
+     * 批量解码的回调，都在主线程
+     */
+    public interface Callback {
+
+        /**
+         * 一张图片解码完成
+         *
+         * @param filePath 图片路径
+         * @param result   二维码中的字符串，没有识别到为空
+         */
+        void onResult(String filePath, String result);
+
+        /**
+         * 全部完成或被取消，只回调一次，之后不会再有 onResult
+         *
+         * @param cancelled 是否被取消
+         */
+        void onComplete(boolean cancelled);
+    }
+
+    /**
+     * 一次批量解码
+     */
+    public static class Task {
+
+        private final AtomicBoolean  mFinished = new AtomicBoolean();
+        private final AtomicInteger  mRemaining;
+        private final Callback       mCallback;
+        private final Handler        mMainHandler;
+        private final List<Future<?>> mFutures;
+        private volatile boolean     mCancelled;
+
+        private Task(int count, Callback callback, Handler mainHandler) {
+            mRemaining = new AtomicInteger(count);
+            mCallback = callback;
+            mMainHandler = mainHandler;
+            mFutures = new ArrayList<>(count);
+        }
+
+        /**
+         * 取消还没有开始的图片，已经回调过的结果不受影响
+         */
+        public void cancel() {
+            mCancelled = true;
+            synchronized (mFutures) {
+                for (Future<?> future : mFutures) {
+                    future.cancel(false);
+                }
+            }
+            finish(true);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private void addFuture(Future<?> future) {
+            synchronized (mFutures) {
+                mFutures.add(future);
+            }
+        }
+
+        private void deliver(final String filePath, final String result) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onResult(filePath, result);
+                    }
+                }
+            });
+            if (mRemaining.decrementAndGet() == 0) {
+                finish(false);
+            }
+        }
+
+        private void finish(final boolean cancelled) {
+            if (!mFinished.compareAndSet(false, true)) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onComplete(cancelled);
+                }
+            });
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final Semaphore       mMemoryPermits;
+    private final int             mMaxPermits;
+    private final Handler         mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param threadCount        解码线程数，小于等于 0 时按 CPU 核数决定
+     * @param memoryBudgetBytes  同时解码的图片最多占用的内存
+     */
+    public AlbumBatchDecoder(int threadCount, long memoryBudgetBytes) {
+        if (threadCount <= 0) {
+            threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREAD_COUNT));
+        }
+        mMaxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudgetBytes / BYTES_PER_PERMIT));
+        mMemoryPermits = new Semaphore(mMaxPermits, true);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "AlbumDecode-" + mCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // 空闲时不占线程
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * 批量解码
+     *
+     * @param filePaths 图片路径
+     * @param callback  主线程回调
+     * @return 可以用来取消的 Task
+     */
+    public Task decode(Collection<String> filePaths, Callback callback) {
+        final Task task = new Task(filePaths.size(), callback, mMainHandler);
+        if (filePaths.isEmpty()) {
+            task.finish(false);
+            return task;
+        }
+        for (final String filePath : filePaths) {
+            task.addFuture(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    decodeOne(task, filePath);
+                }
+            }));
+        }
+        return task;
+    }
+
+    private void decodeOne(Task task, String filePath) {
+        if (task.isCancelled()) {
+            return;
+        }
+        String cached = AlbumDecoder.getCachedResult(filePath);
+        if (cached != null) {
+            task.deliver(filePath, cached);
+            return;
+        }
+        // 超过预算的大图也允许解码，只是独占全部额度
+        int permits = (int) Math.min(mMaxPermits, Math.max(1, AlbumDecoder.estimateBytes(filePath) / BYTES_PER_PERMIT));
+        try {
+            mMemoryPermits.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // 解码出错和没有识别到一样回调空字符串
+        String result = "";
+        try {
+            if (!task.isCancelled()) {
+                result = AlbumDecoder.decode(filePath);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        } finally {
+            mMemoryPermits.release(permits);
+        }
+        task.deliver(filePath, result);
+    }
+}
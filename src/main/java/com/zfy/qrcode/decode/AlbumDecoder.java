@@ -0,0 +1,146 @@
+package com.zfy.qrcode.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.duoyi.qrdecode.BarcodeFormat;
+import com.duoyi.qrdecode.DecodeEntry;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.utils.PayloadCodec;
+import com.zfy.qrcode.utils.ZxImageUtils;
+
+import java.io.File;
+
+/**
+ * 相册图片解码，可以在任意线程同时调用。
+ * 不使用 DecodeHandler（没有 Looper 的线程里无法创建 Handler），也不使用 ZxImageUtils 中共享的 yuv 缓冲。
+ */
+public class AlbumDecoder {
+
+    private static final int ZXING_REQ_SIZE = 256; // zxing 解码前把图片采样到这个大小附近
+
+    private static AlbumResultCache sCache;
+
+    /**
+     * 设置结果缓存的磁盘目录，不设置时只缓存在内存
+     *
+     * @param cacheDir 缓存目录
+     */
+    public static synchronized void setCacheDir(File cacheDir) {
+        sCache = new AlbumResultCache(cacheDir, QrCode.QR_ALBUM_CACHE_CONTENT_HASH);
+    }
+
+    private static synchronized AlbumResultCache getCache() {
+        if (sCache == null) {
+            sCache = new AlbumResultCache(null, QrCode.QR_ALBUM_CACHE_CONTENT_HASH);
+        }
+        return sCache;
+    }
+
+    /**
+     * 清空结果缓存
+     */
+    public static void clearCache() {
+        getCache().clear();
+    }
+
+    /**
+     * 扫描相册二维码，结果会被缓存，同一张图片再次扫描时直接返回
+     *
+     * @param filePath 二维码路径
+     * @return 二维码中的字符串，没有识别到返回空
+     */
+    public static String decode(String filePath) {
+        AlbumResultCache cache = QrCode.QR_ALBUM_CACHE_ENABLE ? getCache() : null;
+        String key = cache == null ? null : cache.keyOf(filePath, cacheMode());
+        if (key != null) {
+            String cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String result;
+        if (QrCode.QR_DECODE_ALBUM_BY_ZBAR) {
+            result = DecodeEntry.decodeFromFile(filePath, new BarcodeFormat(BarcodeFormat.QR_CODE));
+        } else {
+            result = decodeByZXing(filePath);
+        }
+        if (result == null) {
+            result = "";
+        }
+        if (key != null) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * 只查缓存，不解码
+     *
+     * @param filePath 二维码路径
+     * @return 缓存的结果，"" 表示图片里没有码，null 表示没有缓存
+     */
+    public static String getCachedResult(String filePath) {
+        if (!QrCode.QR_ALBUM_CACHE_ENABLE) {
+            return null;
+        }
+        AlbumResultCache cache = getCache();
+        String key = cache.keyOf(filePath, cacheMode());
+        return key == null ? null : cache.get(key);
+    }
+
+    // 两种解码方式的识别能力不同，结果分开缓存
+    private static String cacheMode() {
+        return QrCode.QR_DECODE_ALBUM_BY_ZBAR ? "zbar" : "zxing";
+    }
+
+    /**
+     * 估算解码这张图片需要的内存，用于限制同时解码的图片数量
+     *
+     * @param filePath 图片路径
+     * @return 字节数，图片无法读取时返回 0
+     */
+    public static long estimateBytes(String filePath) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        if (QrCode.QR_DECODE_ALBUM_BY_ZBAR) {
+            // 与 DecodeEntry.decodeFromFile 的采样一致，RGB_565 的 bitmap + int 像素数组
+            int sampleSize = Math.max(1, Math.max(
+                    (int) Math.ceil((double) height / DecodeEntry.DEFAULT_HEIGHT),
+                    (int) Math.ceil((double) width / DecodeEntry.DEFAULT_WIDTH)));
+            return (long) (width / sampleSize) * (height / sampleSize) * (2 + 4);
+        }
+        // RGB_565 的 bitmap + 像素数组 + 亮度
+        int sampleSize = ZxImageUtils.calculateInSampleSize(options, ZXING_REQ_SIZE, ZXING_REQ_SIZE);
+        return (long) (width / sampleSize) * (height / sampleSize) * (2 + 2 + 1);
+    }
+
+    private static String decodeByZXing(String filePath) {
+        // 只需要亮度，RGB_565 比 ARGB_8888 省一半内存
+        Bitmap bitmap = ZxImageUtils.decodeSampledBitmapFromFile(filePath, ZXING_REQ_SIZE, ZXING_REQ_SIZE,
+                Bitmap.Config.RGB_565);
+        if (bitmap == null) {
+            return "";
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] luminance = ZxImageUtils.getLuminance(bitmap);
+        ZxImageUtils.recyclerBitmaps(bitmap);
+
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(luminance, width, height,
+                0, 0, width, height, false);
+        Result result = new BinarizerCascade(QrCode.QR_ONLY, null, QrCode.QR_DECODE_TRY_HARDER).decode(source);
+        if (result == null) {
+            return "";
+        }
+        return QrCode.QR_DECODE_INFLATE_PAYLOAD ? PayloadCodec.decode(result.getText()) : result.getText();
+    }
+}
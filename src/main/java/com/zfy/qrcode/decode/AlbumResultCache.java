@@ -0,0 +1,257 @@
+package com.zfy.qrcode.decode;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * 相册图片的解码结果缓存。
+ * 以 路径 + 文件大小 + 修改时间 为 key（可选改为 文件大小 + 内容采样哈希，图片改名或复制后仍能命中），
+ * 没有识别到码的结果同样缓存，重复扫描同一张图片时不再解码。
+ * 内存中是 LruCache；设置了缓存目录时，每条新结果追加写入磁盘日志，首次使用时从日志恢复，
+ * 日志中的记录数超过容量的两倍时按内存中的内容重写一次。
+ * 每条记录先编码完整再一次写入，超过 writeUTF 上限（64KB）的结果只缓存在内存，不会让日志错位。
+ * 线程安全，批量解码的多个线程可以同时使用。
+ */
+public class AlbumResultCache {
+
+    public static final String TAG = AlbumResultCache.class.getSimpleName();
+
+    private static final String FILE_NAME    = "album_results.log";
+    private static final int    MAX_ENTRIES  = 1024;
+    private static final int    HASH_SAMPLE  = 64 * 1024; // 内容哈希只读文件头尾各 64KB
+    private static final int    HASH_BYTES   = 16; // key 中保留的摘要长度，128 位
+
+    private final LruCache<String, String> mMemoryCache = new LruCache<>(MAX_ENTRIES);
+    private final boolean                  mContentHash;
+    private final File                     mFile;
+    private       boolean                  mLoaded;
+    private       int                      mDiskRecords;
+
+    /**
+     * @param cacheDir    磁盘缓存目录，为 null 时只缓存在内存
+     * @param contentHash key 是否使用文件内容的采样哈希代替路径和修改时间
+     */
+    public AlbumResultCache(File cacheDir, boolean contentHash) {
+        mFile = cacheDir == null ? null : new File(cacheDir, FILE_NAME);
+        mContentHash = contentHash;
+    }
+
+    /**
+     * 计算图片的缓存 key
+     *
+     * @param filePath 图片路径
+     * @param mode     解码方式，不同方式的结果分开缓存
+     * @return key，文件不存在或者读取失败时返回 null
+     */
+    public String keyOf(String filePath, String mode) {
+        File file = new File(filePath);
+        long length = file.length();
+        if (length <= 0) {
+            return null;
+        }
+        if (!mContentHash) {
+            return mode + '|' + length + '|' + file.lastModified() + '|' + filePath;
+        }
+        String hash = contentHash(file, length);
+        if (hash == null) {
+            return null;
+        }
+        return mode + '|' + length + '|' + hash;
+    }
+
+    /**
+     * @return 缓存的结果，"" 表示图片里没有码，null 表示没有缓存
+     */
+    public String get(String key) {
+        ensureLoaded();
+        return mMemoryCache.get(key);
+    }
+
+    /**
+     * @param result 解码结果，没有识别到时传空
+     */
+    public void put(String key, String result) {
+        ensureLoaded();
+        if (result == null) {
+            result = "";
+        }
+        String old = mMemoryCache.put(key, result);
+        if (!result.equals(old)) {
+            append(key, result);
+        }
+    }
+
+    /**
+     * 清空内存和磁盘中的缓存
+     */
+    public synchronized void clear() {
+        mMemoryCache.evictAll();
+        mDiskRecords = 0;
+        if (mFile != null && mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "delete " + mFile + " failed");
+        }
+    }
+
+    private synchronized void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null || !mFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (in.available() > 0) {
+                String key = in.readUTF();
+                String result = in.readUTF();
+                // 后写入的记录覆盖先写入的，最近的记录留在 LRU 里
+                mMemoryCache.put(key, result);
+                mDiskRecords++;
+            }
+        } catch (IOException e) {
+            // 最后一条记录没有写完整或者文件损坏，下次写入时重写整个日志，否则新记录会错位
+            Log.w(TAG, e);
+            mDiskRecords = MAX_ENTRIES * 2;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private synchronized void append(String key, String result) {
+        if (mFile == null) {
+            return;
+        }
+        if (mDiskRecords >= MAX_ENTRIES * 2) {
+            rewrite();
+            return;
+        }
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        byte[] record = encodeRecord(key, result);
+        if (record == null) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            out.write(record);
+            mDiskRecords++;
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    // 按内存中的内容重写日志，写到临时文件再替换，中途失败不会丢掉旧日志
+    private void rewrite() {
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        Map<String, String> snapshot = mMemoryCache.snapshot();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            int records = 0;
+            for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+                byte[] record = encodeRecord(entry.getKey(), entry.getValue());
+                if (record != null) {
+                    out.write(record);
+                    records++;
+                }
+            }
+            out.close();
+            out = null;
+            if (tmp.renameTo(mFile)) {
+                mDiskRecords = records;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * 把一条记录编码成 key、result 两个 UTF 字段
+     *
+     * @return 编码后的字节，超过 writeUTF 的长度上限时返回 null
+     */
+    private static byte[] encodeRecord(String key, String result) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + key.length() + result.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(key);
+            out.writeUTF(result);
+        } catch (IOException e) {
+            // UTFDataFormatException：结果太长，只留在内存里
+            Log.w(TAG, "result too large for the disk cache, " + result.length() + " chars");
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    // 文件头尾各采样一段做 SHA-256，比读完整个文件快很多；文件大小已经在 key 里
+    private static String contentHash(File file, long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[(int) Math.min(HASH_SAMPLE, length)];
+            raf.readFully(buffer);
+            digest.update(buffer);
+            if (length > HASH_SAMPLE) {
+                raf.seek(Math.max(HASH_SAMPLE, length - HASH_SAMPLE));
+                int tail = (int) (length - raf.getFilePointer());
+                raf.readFully(buffer, 0, tail);
+                digest.update(buffer, 0, tail);
+            }
+            return toHex(digest.digest(), HASH_BYTES);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.w(TAG, e);
+            return null;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    private static String toHex(byte[] bytes, int count) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count && i < bytes.length; i++) {
+            sb.append(digits[(bytes[i] >> 4) & 0xf]).append(digits[bytes[i] & 0xf]);
+        }
+        return sb.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.zfy.qrcode.decode;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ChecksumException;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 二值化策略级联。
+ * GlobalHistogramBinarizer 更快，但是识别度低；HybridBinarizer 识别度高，但是更慢。
+ * 每帧先用便宜的全局二值化，只有在"有希望"的帧（找到了定位图案但数据解不出来）
+ * 或者连续失败若干帧之后才退到 hybrid，必要时再加 TRY_HARDER。
+ * 同时统计本次扫描中各策略的命中率，当前光照下全局二值化总是不中而 hybrid 能中时，直接从 hybrid 开始。
+ * 不是线程安全的，每个解码线程持有自己的实例。
+ */
+public class BinarizerCascade {
+
+    public enum Strategy {
+        GLOBAL, HYBRID, HYBRID_TRY_HARDER
+    }
+
+    private static final int FAILURES_BEFORE_HYBRID     = 3; // 连续失败 N 帧后，即使不像有码也试一次 hybrid
+    private static final int FAILURES_BEFORE_TRY_HARDER = 6;
+    private static final int MIN_ATTEMPTS_TO_LEARN      = 16; // 样本太少时不做判断
+    private static final int MAX_ATTEMPTS_BEFORE_DECAY  = 256; // 统计量减半，让策略跟上光照变化
+
+    private final boolean                     mQrOnly;
+    private final boolean                     mAllowTryHarder;
+    private final Map<DecodeHintType, Object> mTryHarderHints;
+    private       QRCodeReader                mQrCodeReader;
+    private       MultiFormatReader           mMultiFormatReader;
+    private       MultiFormatReader           mTryHarderReader;
+
+    private final int[] mAttempts = new int[Strategy.values().length];
+    private final int[] mHits     = new int[Strategy.values().length];
+    private       int   mConsecutiveFailures;
+    private       boolean mPromising; // 上一次尝试找到了码但没解出来
+
+    /**
+     * @param qrOnly         只识别二维码，使用 QRCodeReader
+     * @param hints          非 qrOnly 时 MultiFormatReader 使用的参数
+     * @param allowTryHarder 是否允许最后一级使用 TRY_HARDER
+     */
+    public BinarizerCascade(boolean qrOnly, Map<DecodeHintType, Object> hints, boolean allowTryHarder) {
+        mQrOnly = qrOnly;
+        mAllowTryHarder = allowTryHarder;
+        mTryHarderHints = new HashMap<>();
+        if (hints != null) {
+            mTryHarderHints.putAll(hints);
+        }
+        mTryHarderHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        if (qrOnly) {
+            mQrCodeReader = new QRCodeReader();
+        } else {
+            mMultiFormatReader = new MultiFormatReader();
+            mMultiFormatReader.setHints(hints);
+        }
+    }
+
+    /**
+     * 按级联策略解码
+     *
+     * @param source 亮度数据
+     * @return 解码结果，没有识别到返回 null
+     */
+    public Result decode(LuminanceSource source) {
+        Strategy first = chooseFirstStrategy();
+        Result result = attempt(first, source);
+        if (result == null && first == Strategy.GLOBAL
+                && (mPromising || mConsecutiveFailures >= FAILURES_BEFORE_HYBRID)) {
+            result = attempt(Strategy.HYBRID, source);
+        }
+        if (result == null && mAllowTryHarder
+                && (mPromising || mConsecutiveFailures >= FAILURES_BEFORE_TRY_HARDER)) {
+            result = attempt(Strategy.HYBRID_TRY_HARDER, source);
+        }
+        if (result == null) {
+            mConsecutiveFailures++;
+        } else {
+            mConsecutiveFailures = 0;
+        }
+        return result;
+    }
+
+    public int getAttemptCount(Strategy strategy) {
+        return mAttempts[strategy.ordinal()];
+    }
+
+    public int getHitCount(Strategy strategy) {
+        return mHits[strategy.ordinal()];
+    }
+
+    // 全局二值化在当前光照下明显不如 hybrid 时，跳过全局二值化
+    private Strategy chooseFirstStrategy() {
+        int global = Strategy.GLOBAL.ordinal();
+        int hybrid = Strategy.HYBRID.ordinal();
+        if (mAttempts[global] < MIN_ATTEMPTS_TO_LEARN || mAttempts[hybrid] < MIN_ATTEMPTS_TO_LEARN) {
+            return Strategy.GLOBAL;
+        }
+        // 比较命中率 hits / attempts，交叉相乘避免除法
+        long globalRate = (long) mHits[global] * mAttempts[hybrid];
+        long hybridRate = (long) mHits[hybrid] * mAttempts[global];
+        return hybridRate > globalRate * 2 ? Strategy.HYBRID : Strategy.GLOBAL;
+    }
+
+    private Result attempt(Strategy strategy, LuminanceSource source) {
+        int index = strategy.ordinal();
+        if (++mAttempts[index] > MAX_ATTEMPTS_BEFORE_DECAY) {
+            mAttempts[index] /= 2;
+            mHits[index] /= 2;
+        }
+        BinaryBitmap bitmap = new BinaryBitmap(strategy == Strategy.GLOBAL
+                ? new GlobalHistogramBinarizer(source) : new HybridBinarizer(source));
+        boolean tryHarder = strategy == Strategy.HYBRID_TRY_HARDER;
+        Result result = null;
+        mPromising = false;
+        try {
+            result = decode(bitmap, tryHarder);
+        } catch (FormatException | ChecksumException e) {
+            // 找到了定位图案，只是数据没解出来，换更好的二值化多半能成功
+            mPromising = true;
+        } catch (NotFoundException e) {
+            // continue
+        } finally {
+            resetReader(tryHarder);
+        }
+        if (result != null) {
+            mHits[index]++;
+        }
+        return result;
+    }
+
+    private Result decode(BinaryBitmap bitmap, boolean tryHarder)
+            throws FormatException, ChecksumException, NotFoundException {
+        if (mQrOnly) {
+            return tryHarder ? mQrCodeReader.decode(bitmap, mTryHarderHints) : mQrCodeReader.decode(bitmap);
+        }
+        if (tryHarder) {
+            if (mTryHarderReader == null) {
+                mTryHarderReader = new MultiFormatReader();
+                mTryHarderReader.setHints(mTryHarderHints);
+            }
+            return mTryHarderReader.decodeWithState(bitmap);
+        }
+        return mMultiFormatReader.decodeWithState(bitmap);
+    }
+
+    private void resetReader(boolean tryHarder) {
+        if (mQrOnly) {
+            mQrCodeReader.reset();
+        } else if (tryHarder) {
+            mTryHarderReader.reset();
+        } else {
+            mMultiFormatReader.reset();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.zfy.qrcode.decode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.R;
+import com.zfy.qrcode.camera.CameraManager;
+import com.zfy.qrcode.utils.CaptureUIManager;
+import com.zfy.qrcode.utils.StartupMetrics;
+
+/**
+ * 多个解码线程的调度器，运行在主线程。
+ * 相机帧先发到这里，再交给空闲的解码线程；所有线程都忙时只保留最新的一帧，更旧的直接丢弃，
+ * 保证解码延迟有上限。解码结果经由这里转发给 CaptureHandler，每一轮扫描只转发一次成功结果。
+ * 解码线程在后台并行初始化，这里不等待，只把帧交给已经就绪的线程。
+ */
+public class DecodeDispatcher extends Handler {
+
+    private static final int MAX_WORKER_COUNT = 4;
+    // 每个线程连续失败这么多帧（大约走完一轮 DecodeRegionPolicy）后提高预览分辨率
+    private static final int PREVIEW_STEP_FAILURES_PER_WORKER = 9;
+
+    private final CaptureUIManager mCaptureUIManager;
+    private final DecodeThread[]   mWorkers;
+    private final boolean[]        mBusy;
+    private final boolean[]        mReady; // 线程发来 decode_worker_ready 之后才能派发
+    private final int[]            mWorkerGeneration; // 每个线程正在解码的帧属于哪一轮扫描
+    private final DecodeMetrics    mMetrics;
+    private final StartupMetrics   mStartupMetrics;
+    private final long             mStartNanos; // 开始创建解码线程的时间
+
+    private int     mGeneration; // 每次重新开始扫描加一，旧一轮的结果全部作废
+    private boolean mSucceeded; // 本轮已经发布过成功结果
+    private boolean mQuit;
+    private int     mFailureStreak; // 连续失败的帧数，成功或重新开始时清零
+    private int     mReadyCount;
+    // 所有线程都忙时暂存的最新一帧
+    private byte[]  mPendingData;
+    private int     mPendingWidth;
+    private int     mPendingHeight;
+
+    /**
+     * @param captureUIManager 扫描页面管理类
+     * @param decodeMode       {@link DecodeThread#ALL_MODE} 等
+     * @param workerCount      解码线程数，小于等于 0 时按 CPU 核数决定
+     */
+    public DecodeDispatcher(CaptureUIManager captureUIManager, int decodeMode, int workerCount) {
+        super(Looper.getMainLooper());
+        mCaptureUIManager = captureUIManager;
+        mMetrics = captureUIManager.getDecodeMetrics();
+        mStartupMetrics = captureUIManager.getStartupMetrics();
+        mStartNanos = StartupMetrics.now();
+        int count = resolveWorkerCount(workerCount);
+        mWorkers = new DecodeThread[count];
+        mBusy = new boolean[count];
+        mReady = new boolean[count];
+        mWorkerGeneration = new int[count];
+        for (int i = 0; i < count; i++) {
+            mWorkers[i] = new DecodeThread(captureUIManager, decodeMode, this, i);
+            mWorkers[i].start();
+        }
+    }
+
+    private static int resolveWorkerCount(int workerCount) {
+        // zbar 的 native 解码不保证线程安全，只用一个线程
+        if (QrCode.QR_DECODE_CAPTURE_BY_ZBAR) {
+            return 1;
+        }
+        if (workerCount > 0) {
+            return workerCount;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores - 1, MAX_WORKER_COUNT));
+    }
+
+    public int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * @return 同时占用的预览帧最多有几帧：每个线程一帧，加上暂存的一帧
+     */
+    public int getMaxHeldFrames() {
+        return mWorkers.length + 1;
+    }
+
+    /**
+     * 开始新一轮扫描，还在解码中的旧帧结果会被丢弃
+     */
+    public void reset() {
+        mGeneration++;
+        mSucceeded = false;
+        mFailureStreak = 0;
+        dropPendingFrame();
+    }
+
+    /**
+     * 停止所有解码线程，最多等待 timeoutMs；还没就绪的线程不会阻塞在这里
+     */
+    public void quit(long timeoutMs) {
+        mQuit = true;
+        removeCallbacksAndMessages(null);
+        dropPendingFrame();
+        for (DecodeThread worker : mWorkers) {
+            worker.quit();
+        }
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        for (DecodeThread worker : mWorkers) {
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            try {
+                worker.join(remaining);
+            } catch (InterruptedException e) {
+                // continue
+            }
+        }
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        if (message.what == R.id.decode) {
+            onFrame((byte[]) message.obj, message.arg1, message.arg2);
+        } else if (message.what == R.id.decode_worker_ready) {
+            onWorkerReady(message.arg1);
+        } else if (message.what == R.id.decode_succeeded) {
+            onDecodeSucceeded(message);
+        } else if (message.what == R.id.decode_failed) {
+            onDecodeFailed(message.arg1);
+        }
+    }
+
+    private void onWorkerReady(int worker) {
+        mReady[worker] = true;
+        if (++mReadyCount == mWorkers.length) {
+            mStartupMetrics.record(StartupMetrics.Phase.DECODE_WORKERS, mStartNanos);
+        }
+        if (mQuit || mPendingData == null) {
+            return;
+        }
+        // 第一帧可能比解码线程先到
+        byte[] data = mPendingData;
+        mPendingData = null;
+        dispatch(worker, data, mPendingWidth, mPendingHeight);
+        if (findIdleWorker() >= 0) {
+            requestPreviewFrame();
+        }
+    }
+
+    private void onFrame(byte[] data, int width, int height) {
+        mMetrics.increment(DecodeMetrics.Counter.FRAMES);
+        mStartupMetrics.record(StartupMetrics.Phase.FIRST_FRAME, mStartupMetrics.getBeginNanos());
+        if (mQuit || mSucceeded) {
+            mMetrics.increment(DecodeMetrics.Counter.DROPPED);
+            releasePreviewFrame(data);
+            return;
+        }
+        int worker = findIdleWorker();
+        if (worker >= 0) {
+            dispatch(worker, data, width, height);
+            // 还有空闲线程，继续要下一帧
+            if (findIdleWorker() >= 0) {
+                requestPreviewFrame();
+            }
+        } else {
+            // 都在忙或者还没就绪，新帧替换掉旧的暂存帧
+            dropPendingFrame();
+            mPendingData = data;
+            mPendingWidth = width;
+            mPendingHeight = height;
+        }
+    }
+
+    private void onDecodeSucceeded(Message message) {
+        int worker = message.arg1;
+        mBusy[worker] = false;
+        if (mQuit || mSucceeded) {
+            return;
+        }
+        if (mWorkerGeneration[worker] != mGeneration) {
+            // 上一轮的结果作废，不算成功也不算失败，让这个线程继续解码
+            continueDecoding(worker);
+            return;
+        }
+        reportDecodeResult(true);
+        mSucceeded = true;
+        mFailureStreak = 0;
+        dropPendingFrame();
+        Handler handler = mCaptureUIManager.getCaptureHandler();
+        if (handler != null) {
+            Message forward = Message.obtain(handler, R.id.decode_succeeded, message.obj);
+            forward.setData(message.getData());
+            forward.sendToTarget();
+        }
+    }
+
+    private void onDecodeFailed(int worker) {
+        mBusy[worker] = false;
+        if (mQuit || mSucceeded) {
+            return;
+        }
+        if (mWorkerGeneration[worker] != mGeneration) {
+            // 上一轮的帧，不影响对焦和预览尺寸
+            continueDecoding(worker);
+            return;
+        }
+        reportDecodeResult(false);
+        if (++mFailureStreak >= PREVIEW_STEP_FAILURES_PER_WORKER * mWorkers.length) {
+            mFailureStreak = 0;
+            stepUpPreviewSize();
+        }
+        continueDecoding(worker);
+    }
+
+    // 线程空闲了：有暂存帧就交给它，否则让 CaptureHandler 再要一帧
+    private void continueDecoding(int worker) {
+        if (mPendingData != null) {
+            byte[] data = mPendingData;
+            mPendingData = null;
+            dispatch(worker, data, mPendingWidth, mPendingHeight);
+            return;
+        }
+        Handler handler = mCaptureUIManager.getCaptureHandler();
+        if (handler != null) {
+            Message.obtain(handler, R.id.decode_failed).sendToTarget();
+        }
+    }
+
+    private int findIdleWorker() {
+        for (int i = 0; i < mBusy.length; i++) {
+            if (mReady[i] && !mBusy[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void dispatch(int worker, byte[] data, int width, int height) {
+        mBusy[worker] = true;
+        mWorkerGeneration[worker] = mGeneration;
+        Message.obtain(mWorkers[worker].getHandler(), R.id.decode, width, height, data).sendToTarget();
+    }
+
+    private void requestPreviewFrame() {
+        CameraManager cameraManager = mCaptureUIManager.getCameraManager();
+        if (cameraManager != null) {
+            cameraManager.requestPreviewFrame(this, R.id.decode);
+        }
+    }
+
+    // 码比预期的密，换更大的预览尺寸；预览会重启，之前要的帧不会再来，重新要一帧
+    private void stepUpPreviewSize() {
+        CameraManager cameraManager = mCaptureUIManager.getCameraManager();
+        if (cameraManager != null && cameraManager.stepUpPreviewSize()) {
+            requestPreviewFrame();
+        }
+    }
+
+    // 对焦根据识别结果决定保持还是重新对焦
+    private void reportDecodeResult(boolean decoded) {
+        CameraManager cameraManager = mCaptureUIManager.getCameraManager();
+        if (!mQuit && cameraManager != null) {
+            cameraManager.onDecodeResult(decoded);
+        }
+    }
+
+    private void dropPendingFrame() {
+        if (mPendingData != null) {
+            mMetrics.increment(DecodeMetrics.Counter.DROPPED);
+            releasePreviewFrame(mPendingData);
+            mPendingData = null;
+        }
+    }
+
+    private void releasePreviewFrame(byte[] data) {
+        CameraManager cameraManager = mCaptureUIManager.getCameraManager();
+        if (cameraManager != null) {
+            cameraManager.releasePreviewFrame(data);
+        }
+    }
+}
@@ -27,75 +27,50 @@ import android.util.Log;
 
 import com.duoyi.qrdecode.BarcodeFormat;
 import com.duoyi.qrdecode.DecodeEntry;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.ChecksumException;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.FormatException;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.NotFoundException;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.PlanarYUVLuminanceSource;
 import com.google.zxing.Result;
-import com.google.zxing.common.GlobalHistogramBinarizer;
-import com.google.zxing.qrcode.QRCodeReader;
 import com.zfy.qrcode.QrCode;
 import com.zfy.qrcode.R;
+import com.zfy.qrcode.camera.CameraManager;
 import com.zfy.qrcode.utils.CaptureUIManager;
+import com.zfy.qrcode.utils.PayloadCodec;
 
 import java.io.ByteArrayOutputStream;
-import java.util.HashMap;
 import java.util.Map;
 
 public class DecodeHandler extends Handler {
 
     public static final String TAG = DecodeHandler.class.getSimpleName();
 
+    private static final int METRICS_LOG_INTERVAL = 300; // 每解码 N 帧打印一次统计
+
     private boolean running = true;
-    private MultiFormatReader           multiFormatReader;
-    private QRCodeReader                mQrCodeReader;
-    private Map<DecodeHintType, Object> hints;
+    private BinarizerCascade mBinarizerCascade;
     private CaptureUIManager mCaptureUIManager;
+    private byte[]           mRotateBuffer; // 旋转视图物化时复用的缓冲
+    private Handler          mResultHandler; // 多线程解码时结果先交给 DecodeDispatcher
+    private int              mWorkerIndex;
+    private final DecodeRegionPolicy mRegionPolicy = new DecodeRegionPolicy();
+    private DecodeMetrics    mMetrics;
 
     public DecodeHandler( CaptureUIManager captureUIManager,Map<DecodeHintType, Object> hints) {
-        this.hints = hints;
-        this.mCaptureUIManager = captureUIManager;
-        initReader();
-    }
-
-    public DecodeHandler() {
-        initReader();
+        this(captureUIManager, hints, null, 0);
     }
 
-    // 初始化 reader
-    private void initReader() {
-        if (QrCode.QR_ONLY) {
-            mQrCodeReader = new QRCodeReader();
-            hints = new HashMap<>();
-            hints.put(DecodeHintType.CHARACTER_SET, "utf-8");
-            hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
-            hints.put(DecodeHintType.POSSIBLE_FORMATS, com.google.zxing.BarcodeFormat.QR_CODE);
-        } else {
-            multiFormatReader = new MultiFormatReader();
-            multiFormatReader.setHints(hints);
-        }
+    public DecodeHandler(CaptureUIManager captureUIManager, Map<DecodeHintType, Object> hints,
+                         Handler resultHandler, int workerIndex) {
+        this.mCaptureUIManager = captureUIManager;
+        this.mResultHandler = resultHandler;
+        this.mWorkerIndex = workerIndex;
+        this.mMetrics = captureUIManager.getDecodeMetrics();
+        initReader(hints);
     }
 
-    private Result decode(BinaryBitmap bitmap) throws FormatException, ChecksumException, NotFoundException {
-        if (QrCode.QR_ONLY) {
-            if (mQrCodeReader != null)
-                return mQrCodeReader.decode(bitmap);
-        } else {
-            if (multiFormatReader != null)
-                return multiFormatReader.decodeWithState(bitmap);
-        }
-        return null;
-    }
-
-    private void resetReader() {
-        if (QrCode.QR_ONLY) {
-            if (mQrCodeReader != null) mQrCodeReader.reset();
-        } else {
-            if (multiFormatReader != null) multiFormatReader.reset();
-        }
+    // 初始化 reader，二值化策略见 BinarizerCascade
+    private void initReader(Map<DecodeHintType, Object> hints) {
+        mBinarizerCascade = new BinarizerCascade(QrCode.QR_ONLY, hints, QrCode.QR_DECODE_TRY_HARDER);
     }
 
     private static void bundleThumbnail(PlanarYUVLuminanceSource source, Bundle bundle) {
@@ -114,7 +89,14 @@ public class DecodeHandler extends Handler {
             return;
         }
         if (message.what == R.id.decode) {
-            decode((byte[]) message.obj, message.arg1, message.arg2);
+            byte[] data = (byte[]) message.obj;
+            long start = DecodeMetrics.now();
+            decode(data, message.arg1, message.arg2);
+            releasePreviewFrame(data);
+            mMetrics.record(DecodeMetrics.Stage.TOTAL, start);
+            if (mMetrics.increment(DecodeMetrics.Counter.DECODED) % METRICS_LOG_INTERVAL == 0) {
+                Log.d(TAG, mMetrics.snapshot().toString());
+            }
         } else if (message.what == R.id.quit) {
             running = false;
             if (Looper.myLooper() != null) {
@@ -125,6 +107,14 @@ public class DecodeHandler extends Handler {
 
 
 
+    // 解码结束，把预览缓冲还给相机
+    private void releasePreviewFrame(byte[] data) {
+        CameraManager cameraManager = mCaptureUIManager.getCameraManager();
+        if (cameraManager != null) {
+            cameraManager.releasePreviewFrame(data);
+        }
+    }
+
     private Rect mRect;
 
     private Rect zoomRect(Rect rect, float scale) {
@@ -141,10 +131,9 @@ public class DecodeHandler extends Handler {
             Rect cropRect = mCaptureUIManager.getCropRect();
             mRect = zoomRect(cropRect, 1.1f);
         }
-        Log.e(TAG, mRect.toString());
-        Log.e(TAG, data.length + " " + width + "  " + height);
+        long start = DecodeMetrics.now();
         String result = DecodeEntry.getDecodeResult(barcodeFormat, data, width, height, mRect.left, mRect.top, mRect.width(), mRect.height());
-        Log.e(TAG, "result = " + result);
+        mMetrics.record(DecodeMetrics.Stage.ZBAR, start);
         if (!TextUtils.isEmpty(result)) {
             Result rawResult = new Result(result, null, null, null);
             publishResult(rawResult);
@@ -153,15 +142,6 @@ public class DecodeHandler extends Handler {
         }
     }
 
-    static class Size {
-        int width;
-        int height;
-
-        public Size(int width, int height) {
-            this.width = width;
-            this.height = height;
-        }
-    }
     /**
      * Decode the data within the viewfinder rectangle, and time how long it
      * took. For efficiency, reuse the same reader objects from one decode to
@@ -172,48 +152,62 @@ public class DecodeHandler extends Handler {
      * @param height The height of the preview frame.
      */
     private void decode(byte[] data, int width, int height) {
-        Size size = new Size(width,height);
-
         if (QrCode.QR_DECODE_CAPTURE_BY_ZBAR) {
-            decodeByZBar(data, size.width, size.height);
+            decodeByZBar(data, width, height);
             return;
         }
 
-        // 这里需要将获取的data翻转一下，因为相机默认拿的的横屏的数据
-        byte[] rotatedData = new byte[data.length];
-        for (int y = 0; y < size.height; y++) {
-            for (int x = 0; x < size.width; x++)
-                rotatedData[x * size.height + size.height - y - 1] = data[x + y * size.width];
-        }
-        // 宽高也要调整
-        int tmp = size.width;
-        size.width = size.height;
-        size.height = tmp;
-
         Result rawResult = null;
-        PlanarYUVLuminanceSource source = buildLuminanceSource(rotatedData, size.width, size.height);
+        long start = DecodeMetrics.now();
+        LuminanceSource source = buildPreviewLuminanceSource(data, width, height);
+        start = mMetrics.record(DecodeMetrics.Stage.SOURCE, start);
         if (source != null) {
-            // BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            // 更快，但是识别度低
-            BinaryBitmap bitmap = new BinaryBitmap(new GlobalHistogramBinarizer(source));
-            try {
-                rawResult = decode(bitmap);
-            } catch (Exception re) {
-                // continue
-            } finally {
-                resetReader();
-            }
+            rawResult = mBinarizerCascade.decode(source);
+            mMetrics.record(DecodeMetrics.Stage.DECODE, start);
+        }
+        if (rawResult != null) {
+            mRegionPolicy.onDecodeSucceeded();
+            rawResult = inflatePayload(rawResult);
+        } else {
+            mRegionPolicy.onDecodeFailed();
         }
         publishResult(rawResult);
     }
 
+    /**
+     * 相机默认拿的是横屏的数据，这里不再整帧翻转，而是构建一个旋转后的视图，
+     * binarizer 读取时才按需取像素，转置缓冲在帧之间复用。
+     * 解码区域由 {@link DecodeRegionPolicy} 决定，从取景框开始，连续失败时逐步放大到整帧。
+     *
+     * @param data   A preview frame.
+     * @param width  The width of the preview frame.
+     * @param height The height of the preview frame.
+     * @return A RotatedLuminanceSource instance.
+     */
+    private LuminanceSource buildPreviewLuminanceSource(byte[] data, int width, int height) {
+        CameraManager cameraManager = mCaptureUIManager.getCameraManager();
+        int rotation = cameraManager == null ? 90 : cameraManager.getCWNeededRotation();
+        int rotatedWidth = RotatedLuminanceSource.getRotatedWidth(width, height, rotation);
+        int rotatedHeight = RotatedLuminanceSource.getRotatedHeight(width, height, rotation);
+        if (mRotateBuffer == null || mRotateBuffer.length < rotatedWidth * rotatedHeight) {
+            mRotateBuffer = new byte[rotatedWidth * rotatedHeight];
+        }
+        Rect framingRect = cameraManager == null ? null : cameraManager.getFramingRectInRotatedPreview();
+        Rect region = mRegionPolicy.getRegion(framingRect, rotatedWidth, rotatedHeight);
+        return new RotatedLuminanceSource(data, width, height, rotation,
+                region.left, region.top, region.width(), region.height(), mRotateBuffer);
+    }
+
 
     private void publishResult(Result result) {
-        Handler handler = mCaptureUIManager.getCaptureHandler();
+        mMetrics.increment(result != null ? DecodeMetrics.Counter.SUCCEEDED : DecodeMetrics.Counter.FAILED);
+        long start = DecodeMetrics.now();
+        Handler handler = mResultHandler != null ? mResultHandler : mCaptureUIManager.getCaptureHandler();
         if (result != null) {
             // Don't log the barcode contents for security.
             if (handler != null) {
                 Message message = Message.obtain(handler, R.id.decode_succeeded, result);
+                message.arg1 = mWorkerIndex;
                 Bundle bundle = new Bundle();
                 // bundleThumbnail(source, bundle);
                 message.setData(bundle);
@@ -222,49 +216,27 @@ public class DecodeHandler extends Handler {
         } else {
             if (handler != null) {
                 Message message = Message.obtain(handler, R.id.decode_failed);
+                message.arg1 = mWorkerIndex;
                 message.sendToTarget();
             }
         }
+        mMetrics.record(DecodeMetrics.Stage.PUBLISH, start);
     }
 
 
-    public String decodeQrCode(byte[] data, int width, int height) {
-        Result rawResult = null;
-        PlanarYUVLuminanceSource source = buildLuminanceSource(data, width, height);
-        if (source != null) {
-            // BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            // 更快，但是识别度低
-            BinaryBitmap bitmap = new BinaryBitmap(new GlobalHistogramBinarizer(source));
-            try {
-                rawResult = decode(bitmap);
-            } catch (Exception re) {
-                // continue
-            } finally {
-                resetReader();
-            }
+    // 压缩过的内容（"QZ1:" 开头）解压，其余信息保持不变；zbar 的结果已经在 DecodeEntry 中解压
+    private static Result inflatePayload(Result result) {
+        if (!QrCode.QR_DECODE_INFLATE_PAYLOAD) {
+            return result;
         }
-        return rawResult == null ? "" : rawResult.getText();
-    }
-
-    /**
-     * A factory method to build the appropriate LuminanceSource object based on
-     * the format of the preview buffers, as described by Camera.Parameters.
-     *
-     * @param data   A preview frame.
-     * @param width  The width of the image.
-     * @param height The height of the image.
-     * @return A PlanarYUVLuminanceSource instance.
-     */
-    public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
-//        Rect rect = activity.getCropRect();
-//        if (rect == null) {
-//            return null;
-//        }
-//        // Go ahead and assume it's YUV rather than die.
-//        return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top, rect.width(), rect
-//                .height(), false);
-        // 不裁剪，增加识别灵敏度
-        return new PlanarYUVLuminanceSource(data, width, height, 0, 0, width, height, false);
+        String text = PayloadCodec.decode(result.getText());
+        if (text == null || text.equals(result.getText())) {
+            return result;
+        }
+        Result inflated = new Result(text, result.getRawBytes(), result.getResultPoints(),
+                result.getBarcodeFormat(), result.getTimestamp());
+        inflated.putAllMetadata(result.getResultMetadata());
+        return inflated;
     }
 
 }
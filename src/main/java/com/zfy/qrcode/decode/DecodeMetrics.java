@@ -0,0 +1,231 @@
+package com.zfy.qrcode.decode;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 解码流水线的统计数据：每个阶段的耗时直方图、帧数、丢帧数、成功率。
+ * 记录时只做原子加法，不分配对象，可以在每一帧的解码线程里直接调用；
+ * 读取时通过 {@link #snapshot()} 拿到一份拷贝。
+ * 耗时直方图按微秒取 log2 分桶，第 i 个桶表示 [2^i, 2^(i+1)) 微秒，第 0 个桶包含 0。
+ */
+public class DecodeMetrics {
+
+    /**
+     * 统计的阶段
+     */
+    public enum Stage {
+        SOURCE, // 旋转、裁剪，构建 LuminanceSource
+        DECODE, // zxing 二值化 + reader 解码，二值化在 reader 内部按需进行，无法单独计时
+        ZBAR, // zbar native 解码
+        PUBLISH, // 发送解码结果
+        TOTAL // 解码线程处理一帧的总耗时
+    }
+
+    /**
+     * 计数器
+     */
+    public enum Counter {
+        FRAMES, // 相机交上来的帧
+        DROPPED, // 没有解码就丢弃的帧
+        DECODED, // 解码线程处理过的帧
+        SUCCEEDED, // 识别成功的帧
+        FAILED // 识别失败的帧
+    }
+
+    public static final int BUCKET_COUNT = 24; // 最后一个桶 >= 2^23 微秒（约 8 秒）
+
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private final AtomicLongArray mHistograms = new AtomicLongArray(STAGE_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLongArray mMaxNanos   = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLongArray mCounters   = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * @return 计时起点，配合 {@link #record(Stage, long)} 使用
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     *
+     * @param stage     阶段
+     * @param startNano {@link #now()} 得到的起点
+     * @return 当前时间，可以作为下一个阶段的起点
+     */
+    public long record(Stage stage, long startNano) {
+        long end = System.nanoTime();
+        recordNanos(stage, end - startNano);
+        return end;
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int index = stage.ordinal();
+        mHistograms.incrementAndGet(index * BUCKET_COUNT + bucketOf(nanos));
+        mTotalNanos.addAndGet(index, nanos);
+        long max;
+        while (nanos > (max = mMaxNanos.get(index))) {
+            if (mMaxNanos.compareAndSet(index, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public long increment(Counter counter) {
+        return mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public long getCount(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (int i = 0; i < mHistograms.length(); i++) {
+            mHistograms.set(i, 0);
+        }
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mTotalNanos.set(i, 0);
+            mMaxNanos.set(i, 0);
+        }
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * @return 当前统计的拷贝，各个值之间不保证是同一时刻的
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < mHistograms.length(); i++) {
+            snapshot.histograms[i / BUCKET_COUNT][i % BUCKET_COUNT] = mHistograms.get(i);
+        }
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            snapshot.totalNanos[i] = mTotalNanos.get(i);
+            snapshot.maxNanos[i] = mMaxNanos.get(i);
+        }
+        for (int i = 0; i < mCounters.length(); i++) {
+            snapshot.counters[i] = mCounters.get(i);
+        }
+        return snapshot;
+    }
+
+    // floor(log2(微秒))，不足 1 微秒算第 0 个桶
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= 0) {
+            return 0;
+        }
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * 某一时刻的统计数据
+     */
+    public static class Snapshot {
+
+        private final long[][] histograms = new long[STAGE_COUNT][BUCKET_COUNT];
+        private final long[]   totalNanos = new long[STAGE_COUNT];
+        private final long[]   maxNanos   = new long[STAGE_COUNT];
+        private final long[]   counters   = new long[Counter.values().length];
+
+        public long getCount(Counter counter) {
+            return counters[counter.ordinal()];
+        }
+
+        /**
+         * @return 阶段的记录次数
+         */
+        public long getSampleCount(Stage stage) {
+            long count = 0;
+            for (long bucket : histograms[stage.ordinal()]) {
+                count += bucket;
+            }
+            return count;
+        }
+
+        /**
+         * @return 阶段的耗时直方图，下标含义见 {@link DecodeMetrics}
+         */
+        public long[] getHistogram(Stage stage) {
+            return histograms[stage.ordinal()].clone();
+        }
+
+        public long getMeanMicros(Stage stage) {
+            long count = getSampleCount(stage);
+            return count == 0 ? 0 : totalNanos[stage.ordinal()] / count / 1000;
+        }
+
+        public long getMaxMicros(Stage stage) {
+            return maxNanos[stage.ordinal()] / 1000;
+        }
+
+        /**
+         * 按直方图估算分位数，返回所在桶的上界，精度为 2 倍
+         *
+         * @param stage    阶段
+         * @param quantile 0 ~ 1，例如 0.9
+         * @return 微秒
+         */
+        public long getPercentileMicros(Stage stage, double quantile) {
+            long[] histogram = histograms[stage.ordinal()];
+            long count = getSampleCount(stage);
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * quantile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += histogram[i];
+                if (seen >= target && histogram[i] > 0) {
+                    return i == BUCKET_COUNT - 1 ? getMaxMicros(stage) : (1L << (i + 1)) - 1;
+                }
+            }
+            return getMaxMicros(stage);
+        }
+
+        /**
+         * @return 识别成功帧数 / 解码帧数
+         */
+        public float getSuccessRate() {
+            long decoded = getCount(Counter.DECODED);
+            return decoded == 0 ? 0f : (float) getCount(Counter.SUCCEEDED) / decoded;
+        }
+
+        /**
+         * @return 丢弃帧数 / 总帧数
+         */
+        public float getDropRate() {
+            long frames = getCount(Counter.FRAMES);
+            return frames == 0 ? 0f : (float) getCount(Counter.DROPPED) / frames;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("frames=").append(getCount(Counter.FRAMES))
+                    .append(" dropped=").append(getCount(Counter.DROPPED))
+                    .append(" decoded=").append(getCount(Counter.DECODED))
+                    .append(" succeeded=").append(getCount(Counter.SUCCEEDED));
+            for (Stage stage : Stage.values()) {
+                if (getSampleCount(stage) == 0) {
+                    continue;
+                }
+                sb.append(' ').append(stage.name().toLowerCase())
+                        .append("[mean=").append(getMeanMicros(stage))
+                        .append("us p90=").append(getPercentileMicros(stage, 0.9))
+                        .append("us max=").append(getMaxMicros(stage))
+                        .append("us]");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.zfy.qrcode.decode;
+
+import android.graphics.Rect;
+
+/**
+ * 预览帧的解码区域策略。
+ * 先只解码取景框内的像素，连续失败后逐级放大（1.0x -> 1.3x -> 整帧），
+ * 整帧也连续失败说明画面里多半没有码，回到取景框大小重新开始；识别成功后同样回到取景框。
+ * 这样大部分帧只处理取景框内的数据，又保留了整帧识别的灵敏度。
+ */
+public class DecodeRegionPolicy {
+
+    // 取景框的放大倍数，0 表示整帧
+    private static final float[] SCALES            = {1.0f, 1.3f, 0f};
+    private static final int     FAILURES_PER_STEP = 3;
+
+    private final Rect mRegion = new Rect();
+    private       int  mStep;
+    private       int  mFailures;
+
+    /**
+     * 计算当前这一帧需要解码的区域，返回的 Rect 会被复用，不要持有
+     *
+     * @param framingRect 取景框，坐标为旋转后的预览帧，为 null 时解码整帧
+     * @param frameWidth  旋转后的帧宽
+     * @param frameHeight 旋转后的帧高
+     * @return 解码区域
+     */
+    public Rect getRegion(Rect framingRect, int frameWidth, int frameHeight) {
+        float scale = SCALES[mStep];
+        if (framingRect == null || scale <= 0) {
+            mRegion.set(0, 0, frameWidth, frameHeight);
+            return mRegion;
+        }
+        int halfWidth = (int) (framingRect.width() * scale) / 2;
+        int halfHeight = (int) (framingRect.height() * scale) / 2;
+        int centerX = framingRect.centerX();
+        int centerY = framingRect.centerY();
+        mRegion.set(Math.max(0, centerX - halfWidth), Math.max(0, centerY - halfHeight),
+                Math.min(frameWidth, centerX + halfWidth), Math.min(frameHeight, centerY + halfHeight));
+        if (mRegion.width() <= 0 || mRegion.height() <= 0) {
+            mRegion.set(0, 0, frameWidth, frameHeight);
+        }
+        return mRegion;
+    }
+
+    public void onDecodeSucceeded() {
+        mStep = 0;
+        mFailures = 0;
+    }
+
+    public void onDecodeFailed() {
+        if (++mFailures >= FAILURES_PER_STEP) {
+            mFailures = 0;
+            mStep = (mStep + 1) % SCALES.length;
+        }
+    }
+}
@@ -18,10 +18,12 @@ package com.zfy.qrcode.decode;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Message;
 
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
 import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.R;
 import com.zfy.qrcode.utils.CaptureUIManager;
 
 import java.util.ArrayList;
@@ -46,11 +48,25 @@ public class DecodeThread extends Thread {
 
     private final Map<DecodeHintType, Object> hints;
     private final CountDownLatch              handlerInitLatch;
-    private       Handler                     handler;
+    private volatile Handler                  handler;
+    private volatile boolean                  quitRequested;
     private       CaptureUIManager            mCaptureUIManager;
+    private final Handler                     resultHandler;
+    private final int                         workerIndex;
 
     public DecodeThread(CaptureUIManager captureUIManager, int decodeMode) {
+        this(captureUIManager, decodeMode, null, 0);
+    }
 
+    /**
+     * @param resultHandler 接收解码结果的 handler，为 null 时直接发给 CaptureHandler；
+     *                      线程就绪后会先收到一条 {@link R.id#decode_worker_ready}
+     * @param workerIndex   线程编号，随结果一起放在 message.arg1 中
+     */
+    public DecodeThread(CaptureUIManager captureUIManager, int decodeMode, Handler resultHandler, int workerIndex) {
+        super("DecodeThread-" + workerIndex);
+        this.resultHandler = resultHandler;
+        this.workerIndex = workerIndex;
         mCaptureUIManager = captureUIManager;
         handlerInitLatch = new CountDownLatch(1);
 
@@ -80,6 +96,9 @@ public class DecodeThread extends Thread {
         hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
     }
 
+    /**
+     * 会阻塞到线程就绪，主线程上应该先等 {@link R.id#decode_worker_ready}
+     */
     public Handler getHandler() {
         try {
             handlerInitLatch.await();
@@ -89,12 +108,37 @@ public class DecodeThread extends Thread {
         return handler;
     }
 
+    /**
+     * 线程已经可以接收解码任务
+     */
+    public boolean isReady() {
+        return handler != null;
+    }
+
+    /**
+     * 结束线程，不等待线程就绪；还没就绪的线程初始化完后直接退出
+     */
+    public void quit() {
+        quitRequested = true;
+        Handler h = handler;
+        if (h != null) {
+            Message.obtain(h, R.id.quit).sendToTarget();
+        }
+    }
+
     @Override
     public void run() {
         Looper.prepare();
-        handler = new DecodeHandler(mCaptureUIManager, hints);
+        handler = new DecodeHandler(mCaptureUIManager, hints, resultHandler, workerIndex);
         mCaptureUIManager = null;
         handlerInitLatch.countDown();
+        // 和 quit() 的先写后读顺序相反，两边至少有一边能看到对方
+        if (quitRequested) {
+            return;
+        }
+        if (resultHandler != null) {
+            Message.obtain(resultHandler, R.id.decode_worker_ready, workerIndex, 0).sendToTarget();
+        }
         Looper.loop();
     }
 }
@@ -0,0 +1,197 @@
+package com.zfy.qrcode.decode;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * 以旋转视图的方式读取相机预览的 NV21 数据。
+ * 相机默认输出横屏数据，原来每帧都要整帧转置一次；这里只记录旋转角度，
+ * binarizer 请求哪一行 / 哪块区域才去读取对应的像素，不再为旋转额外分配整帧数组。
+ */
+public final class RotatedLuminanceSource extends LuminanceSource {
+
+    // 转置时的分块边长，让读写都尽量落在缓存行内
+    private static final int BLOCK_SIZE = 32;
+
+    private final byte[] yuvData;
+    private final int    dataWidth; // 原始帧宽
+    private final int    dataHeight; // 原始帧高
+    private final int    rotation; // 顺时针旋转角度 0/90/180/270
+    private final int    left; // 裁剪区域在旋转后坐标系中的位置
+    private final int    top;
+
+    // 旋转后坐标 (x, y) 对应原始数据下标 = origin + x * stepX + y * stepY
+    private final int origin;
+    private final int stepX;
+    private final int stepY;
+
+    private byte[]  matrix;
+    private boolean matrixReady;
+
+    /**
+     * @param yuvData    NV21 预览帧
+     * @param dataWidth  预览帧宽度
+     * @param dataHeight 预览帧高度
+     * @param rotation   需要顺时针旋转的角度，只能是 90 的倍数
+     * @param left       裁剪区域左边界，旋转后的坐标
+     * @param top        裁剪区域上边界，旋转后的坐标
+     * @param width      裁剪区域宽度
+     * @param height     裁剪区域高度
+     * @param reuse      可复用的缓冲，长度不足时忽略，可以为 null
+     */
+    public RotatedLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int rotation,
+                                  int left, int top, int width, int height, byte[] reuse) {
+        super(width, height);
+        int normalized = (rotation % 360 + 360) % 360;
+        if (normalized % 90 != 0) {
+            throw new IllegalArgumentException("Bad rotation: " + rotation);
+        }
+        int rotatedWidth = getRotatedWidth(dataWidth, dataHeight, normalized);
+        int rotatedHeight = getRotatedHeight(dataWidth, dataHeight, normalized);
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        this.yuvData = yuvData;
+        this.dataWidth = dataWidth;
+        this.dataHeight = dataHeight;
+        this.rotation = normalized;
+        this.left = left;
+        this.top = top;
+        this.matrix = reuse;
+
+        switch (normalized) {
+            case 90:
+                stepX = -dataWidth;
+                stepY = 1;
+                break;
+            case 180:
+                stepX = -1;
+                stepY = -dataWidth;
+                break;
+            case 270:
+                stepX = dataWidth;
+                stepY = -1;
+                break;
+            default:
+                stepX = 1;
+                stepY = dataWidth;
+                break;
+        }
+        origin = indexOf(0, 0) + left * stepX + top * stepY;
+    }
+
+    /**
+     * @return 旋转 rotation 度之后帧的宽度
+     */
+    public static int getRotatedWidth(int dataWidth, int dataHeight, int rotation) {
+        return rotation % 180 == 0 ? dataWidth : dataHeight;
+    }
+
+    /**
+     * @return 旋转 rotation 度之后帧的高度
+     */
+    public static int getRotatedHeight(int dataWidth, int dataHeight, int rotation) {
+        return rotation % 180 == 0 ? dataHeight : dataWidth;
+    }
+
+    // 旋转后坐标系原点在原始数据中的下标
+    private int indexOf(int x, int y) {
+        switch (rotation) {
+            case 90:
+                return (dataHeight - 1 - x) * dataWidth + y;
+            case 180:
+                return (dataHeight - 1 - y) * dataWidth + (dataWidth - 1 - x);
+            case 270:
+                return x * dataWidth + (dataWidth - 1 - y);
+            default:
+                return y * dataWidth + x;
+        }
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        int src = origin + y * stepY;
+        if (stepX == 1) {
+            System.arraycopy(yuvData, src, row, 0, width);
+        } else {
+            for (int x = 0; x < width; x++) {
+                row[x] = yuvData[src];
+                src += stepX;
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+        // 未旋转且没有裁剪，直接返回原始数据
+        if (rotation == 0 && width == dataWidth && height == dataHeight) {
+            return yuvData;
+        }
+        if (matrixReady) {
+            return matrix;
+        }
+        int area = width * height;
+        if (matrix == null || matrix.length < area) {
+            matrix = new byte[area];
+        }
+        if (stepX == 1) {
+            int src = origin;
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(yuvData, src, matrix, y * width, width);
+                src += stepY;
+            }
+        } else {
+            // 分块转置，避免整行跨步读取导致的缓存失效
+            for (int blockY = 0; blockY < height; blockY += BLOCK_SIZE) {
+                int endY = Math.min(blockY + BLOCK_SIZE, height);
+                for (int blockX = 0; blockX < width; blockX += BLOCK_SIZE) {
+                    int endX = Math.min(blockX + BLOCK_SIZE, width);
+                    for (int y = blockY; y < endY; y++) {
+                        int src = origin + y * stepY + blockX * stepX;
+                        int dst = y * width + blockX;
+                        for (int x = blockX; x < endX; x++) {
+                            matrix[dst++] = yuvData[src];
+                            src += stepX;
+                        }
+                    }
+                }
+            }
+        }
+        matrixReady = true;
+        return matrix;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new RotatedLuminanceSource(yuvData, dataWidth, dataHeight, rotation,
+                this.left + left, this.top + top, width, height, null);
+    }
+
+    @Override
+    public boolean isRotateSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource rotateCounterClockwise() {
+        // 逆时针转 90 度后，原来的 (x, y) 变为 (y, W - 1 - x)
+        int rotatedWidth = getRotatedWidth(dataWidth, dataHeight, rotation);
+        return new RotatedLuminanceSource(yuvData, dataWidth, dataHeight, rotation + 270,
+                top, rotatedWidth - left - getWidth(), getHeight(), getWidth(), null);
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.zfy.qrcode.encoding;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * 缓存 key 中对 Bitmap 的引用：同一个对象并且像素版本相同才相等。
+ * identityHashCode 和 generationId 都不唯一，原图被回收后新的 Bitmap 可能两个值都一样，
+ * 所以用弱引用持有原图并比较对象本身；原图被回收后这个 key 不再等于任何 key，对应的条目随 LRU 淘汰。
+ */
+final class BitmapRef {
+
+    private final WeakReference<Bitmap> mBitmap;
+    private final int                   mIdentity; // 只用于 hashCode
+    private final int                   mGeneration;
+
+    BitmapRef(Bitmap bitmap) {
+        mBitmap = new WeakReference<>(bitmap);
+        mIdentity = System.identityHashCode(bitmap);
+        mGeneration = bitmap.getGenerationId();
+    }
+
+    /**
+     * @return bitmap 为 null 时返回 null
+     */
+    static BitmapRef of(Bitmap bitmap) {
+        return bitmap == null ? null : new BitmapRef(bitmap);
+    }
+
+    static boolean equals(BitmapRef a, BitmapRef b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static int hashCode(BitmapRef ref) {
+        return ref == null ? 0 : ref.hashCode();
+    }
+
+    /**
+     * @return 是否引用同一个对象，并且像素没有被修改过
+     */
+    boolean refersTo(Bitmap bitmap) {
+        return bitmap != null && bitmap == mBitmap.get() && bitmap.getGenerationId() == mGeneration;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BitmapRef)) {
+            return false;
+        }
+        BitmapRef ref = (BitmapRef) o;
+        Bitmap bitmap = mBitmap.get();
+        return bitmap != null && bitmap == ref.mBitmap.get() && mGeneration == ref.mGeneration;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mIdentity + mGeneration;
+    }
+}
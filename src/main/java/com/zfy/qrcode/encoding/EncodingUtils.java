@@ -1,28 +1,72 @@
 package com.zfy.qrcode.encoding;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.os.Environment;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
-import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
-import com.zfy.qrcode.utils.ZxImageUtils;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.QRCode;
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.utils.PayloadCodec;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * 二维码生成工具类
  */
 public class EncodingUtils {
 
+    private static QrCodeCache sCache;
+
+    private static final QrCodeCompositor sCompositor = new QrCodeCompositor(
+            (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE));
+
+    /**
+     * 设置二维码背景，白色模块处显示背景，为 null 时取消。背景属于调用方，不会被回收
+     *
+     * @param background 背景，按二维码大小缩放
+     */
+    public static void setBackground(Bitmap background) {
+        sCompositor.setBackground(background);
+    }
+
+    /**
+     * 把不再使用的二维码放回池中，供下一次带 logo 或背景的生成复用。
+     * 只在关闭缓存时有效，开启缓存时返回的 Bitmap 由缓存持有
+     *
+     * @param bitmap 之前生成的二维码
+     */
+    public static void releaseQRCode(Bitmap bitmap) {
+        if (!QrCode.QR_ENCODE_CACHE_ENABLE) {
+            sCompositor.release(bitmap);
+        }
+    }
+
+    /**
+     * 设置二维码缓存的磁盘目录，不设置时只缓存在内存
+     *
+     * @param cacheDir 缓存目录
+     */
+    public static synchronized void setCacheDir(File cacheDir) {
+        sCache = new QrCodeCache(memoryCacheBytes(), cacheDir, QrCode.QR_ENCODE_CACHE_DISK_BYTES);
+    }
+
+    private static synchronized QrCodeCache getCache() {
+        if (sCache == null) {
+            sCache = new QrCodeCache(memoryCacheBytes(), null, 0);
+        }
+        return sCache;
+    }
+
+    private static int memoryCacheBytes() {
+        long bytes = QrCode.QR_ENCODE_CACHE_MEMORY_BYTES > 0
+                ? QrCode.QR_ENCODE_CACHE_MEMORY_BYTES : Runtime.getRuntime().maxMemory() / 16;
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
     /**
      * 创建二维码
      *
@@ -30,48 +74,57 @@ public class EncodingUtils {
      * @param widthPix  widthPix
      * @param heightPix heightPix
      * @param logoBm    logoBm
-     * @return 二维码
+     * @return 二维码，开启缓存时可能与其他调用方共享，不要修改或回收
      */
     public static Bitmap createQRCode(String content, int widthPix, int heightPix, Bitmap logoBm) {
-        try {
+        return createQRCode(content, widthPix, heightPix, logoBm, Bitmap.Config.ARGB_8888);
+    }
 
-            int blackColor = 0xff000000;
-            int whiteColor = 0xffffffff;
+    /**
+     * 创建指定格式的二维码。
+     * RGB_565 每像素 2 字节；ALPHA_8 每像素 1 字节，黑色模块不透明、其余透明，绘制时颜色取自 Paint。
+     * 带 logo 或设置了背景时合成结果为 ARGB_8888。logo 属于调用方，不会被回收。
+     *
+     * @param content   content
+     * @param widthPix  widthPix
+     * @param heightPix heightPix
+     * @param logoBm    logoBm
+     * @param config    Bitmap 格式，ARGB_8888、RGB_565 或 ALPHA_8，为 null 时使用 ARGB_8888
+     * @return 二维码，开启缓存时可能与其他调用方共享，不要修改或回收
+     */
+    public static Bitmap createQRCode(String content, int widthPix, int heightPix, Bitmap logoBm,
+                                      Bitmap.Config config) {
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        try {
 
             if (content == null || "".equals(content)) {
                 return null;
             }
 
-            // 配置参数
-            Map<EncodeHintType, Object> hints = new HashMap<>();
-            hints.put(EncodeHintType.CHARACTER_SET, "utf-8");
-            // 容错级别
-            hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
-            // 设置空白边距的宽度
-            hints.put(EncodeHintType.MARGIN, 2); //default is 4
-
-
-            // 图像数据转换，使用了矩阵转换
-            BitMatrix bitMatrix = new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, widthPix,
-                    heightPix, hints);
-            int[] pixels = new int[widthPix * heightPix];
-            // 下面这里按照二维码的算法，逐个生成二维码的图片，
-            // 两个for循环是图片横列扫描的结果
-            for (int y = 0; y < heightPix; y++) {
-                for (int x = 0; x < widthPix; x++) {
-                    if (bitMatrix.get(x, y)) {
-                        pixels[y * widthPix + x] = blackColor;
-                    } else {
-                        pixels[y * widthPix + x] = whiteColor;
-                    }
+            // 压缩后的内容作为 key，开关压缩时不会命中另一种结果
+            String payload = toPayload(content);
+            QrCodeCache cache = QrCode.QR_ENCODE_CACHE_ENABLE ? getCache() : null;
+            QrCodeCache.Key key = null;
+            if (cache != null) {
+                key = cacheKey(payload, widthPix, heightPix, logoBm, config);
+                Bitmap cached = cache.get(key);
+                if (cached != null) {
+                    return cached;
                 }
             }
-            // 生成二维码图片的格式，使用ARGB_8888
-            Bitmap bitmap = Bitmap.createBitmap(widthPix, heightPix, Bitmap.Config.ARGB_8888);
-            bitmap.setPixels(pixels, 0, widthPix, 0, 0, widthPix, heightPix);
-            // bitmap = drawBackground(bitmap);
-            if (logoBm != null) {
-                bitmap = addLogo(bitmap, logoBm);
+
+            Bitmap bitmap;
+            if (sCompositor.needsCompose(logoBm)) {
+                // 二维码、背景和 logo 一次画进同一个 Bitmap
+                bitmap = sCompositor.obtain(widthPix, heightPix);
+            } else {
+                bitmap = Bitmap.createBitmap(widthPix, heightPix, config);
+            }
+            render(payload, logoBm, bitmap);
+            if (cache != null) {
+                cache.put(key, bitmap);
             }
             //必须使用compress方法将bitmap保存到文件中再进行读取。直接返回的bitmap是没有任何压缩的，内存消耗巨大！
             return bitmap;
@@ -82,56 +135,97 @@ public class EncodingUtils {
     }
 
 
-    private static Bitmap drawBackground(Bitmap bitmap) {
-        File file = new File(Environment.getExternalStorageDirectory(), "qr_bg.jpg");
-        Bitmap bg = BitmapFactory.decodeFile(file.getAbsolutePath());
-        Bitmap scaledBg = Bitmap.createScaledBitmap(bg, bitmap.getWidth(), bitmap.getHeight(), false);
-        Bitmap newBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(newBitmap);
-        canvas.drawBitmap(scaledBg, 0, 0, null);
-        canvas.drawBitmap(bitmap, 0, 0, null);
-        canvas.save();
-        canvas.restore();
-        ZxImageUtils.recyclerBitmaps(bg, bitmap);
-        return newBitmap;
+    // 包含所有影响生成结果的参数，异步生成时也用它合并相同的请求
+    static QrCodeCache.Key cacheKey(String content, int widthPix, int heightPix, Bitmap logoBm,
+                                    Bitmap.Config config) {
+        return new QrCodeCache.Key(content, widthPix, heightPix, ErrorCorrectionLevel.H,
+                QrCodeRenderer.DEFAULT_MARGIN, QrCodeRenderer.BLACK, QrCodeRenderer.WHITE, logoBm,
+                sCompositor.getBackground(), QrCode.QR_ENCODE_OPTIMIZE_SEGMENTS, config);
     }
 
     /**
-     * 在二维码中间添加Logo图案
+     * 把二维码渲染到调用方提供的 Bitmap，大小取 Bitmap 的宽高，不经过缓存。
+     * 逐行渲染，行缓冲按线程复用，同样大小的 Bitmap 反复使用时除编码本身外不再分配内存，适合列表中复用
+     *
+     * @param content 内容
+     * @param target  目标，必须可修改；ALPHA_8 时白色为透明
+     * @param logoBm  logo，可以为 null，不会被回收
+     * @return 是否成功
      */
-    private static Bitmap addLogo(Bitmap src, Bitmap logo) {
-        if (src == null) {
-            return null;
-        }
-        if (logo == null) {
-            return src;
-        }
-        //获取图片的宽高
-        int srcWidth = src.getWidth();
-        int srcHeight = src.getHeight();
-        int logoWidth = logo.getWidth();
-        int logoHeight = logo.getHeight();
-        if (srcWidth == 0 || srcHeight == 0) {
-            return null;
-        }
-        if (logoWidth == 0 || logoHeight == 0) {
-            return src;
+    public static boolean createQRCode(String content, Bitmap target, Bitmap logoBm) {
+        if (content == null || "".equals(content) || target == null || !target.isMutable()) {
+            return false;
         }
-        //logo大小为二维码整体大小的1/5
-        float scaleFactor = srcWidth * 1.0f / 5 / logoWidth;
-        Bitmap bitmap = Bitmap.createBitmap(srcWidth, srcHeight, Bitmap.Config.ARGB_8888);
         try {
-            Canvas canvas = new Canvas(bitmap);
-            canvas.drawBitmap(src, 0, 0, null);
-            canvas.scale(scaleFactor, scaleFactor, srcWidth / 2, srcHeight / 2);
-            canvas.drawBitmap(logo, (srcWidth - logoWidth) / 2, (srcHeight - logoHeight) / 2, null);
-            canvas.save();
-            canvas.restore();
-            ZxImageUtils.recyclerBitmaps(src, logo);
-        } catch (Exception e) {
-            bitmap = null;
-            e.getStackTrace();
+            render(toPayload(content), target, logoBm);
+            return true;
+        } catch (WriterException e) {
+            e.printStackTrace();
         }
-        return bitmap;
+        return false;
+    }
+
+    // 逐行写入，不分配整张图的 int 像素数组，否则比 Bitmap 本身还大
+    private static void render(String payload, Bitmap target, Bitmap logoBm) throws WriterException {
+        ByteMatrix modules = encodePayload(payload).getMatrix();
+        // ALPHA_8 只保留透明度，白色用透明表示
+        int white = target.getConfig() == Bitmap.Config.ALPHA_8 ? 0 : QrCodeRenderer.WHITE;
+        sCompositor.compose(modules, QrCodeRenderer.DEFAULT_MARGIN, QrCodeRenderer.BLACK, white, logoBm, target);
+    }
+
+    /**
+     * 创建 1 bit 一个模块的二维码矩阵，包含空白边距，适合打印流程或自行绘制
+     *
+     * @param content 内容
+     * @return BitMatrix，true 为黑
+     */
+    public static BitMatrix createQRCodeMatrix(String content) throws WriterException {
+        return QrCodeRenderer.toBitMatrix(encode(content).getMatrix(),
+                QrCodeRenderer.DEFAULT_MARGIN);
+    }
+
+    /**
+     * 创建 SVG 二维码，以模块为单位，可以任意缩放
+     *
+     * @param content 内容
+     * @return SVG 文本
+     */
+    public static String createQRCodeSvg(String content) throws WriterException {
+        return QrCodeRenderer.toSvg(encode(content).getMatrix(),
+                QrCodeRenderer.DEFAULT_MARGIN, QrCodeRenderer.BLACK, QrCodeRenderer.WHITE);
+    }
+
+    /**
+     * 把二维码直接写成 1 bit 灰度 PNG，逐行压缩，不创建 Bitmap，适合打印用的大尺寸二维码
+     *
+     * @param content   内容
+     * @param widthPix  宽
+     * @param heightPix 高
+     * @param out       输出，不会被关闭
+     */
+    public static void writeQRCodePng(String content, int widthPix, int heightPix, OutputStream out)
+            throws WriterException, IOException {
+        PngStreamWriter.write(encode(content).getMatrix(), widthPix, heightPix, QrCodeRenderer.DEFAULT_MARGIN, out);
+    }
+
+    /**
+     * @param content 内容
+     * @return 生成二维码使用的版本，1~40
+     */
+    public static int getQRCodeVersion(String content) throws WriterException {
+        return encode(content).getVersion().getVersionNumber();
+    }
+
+    private static QRCode encode(String content) throws WriterException {
+        return encodePayload(toPayload(content));
+    }
+
+    private static QRCode encodePayload(String payload) throws WriterException {
+        return QrCodeRenderer.encode(payload, ErrorCorrectionLevel.H, QrCode.QR_ENCODE_OPTIMIZE_SEGMENTS);
+    }
+
+    // 开启压缩且压缩后更小时，实际编码的是压缩后的内容
+    static String toPayload(String content) {
+        return QrCode.QR_ENCODE_COMPRESS_PAYLOAD ? PayloadCodec.encodeIfSmaller(content) : content;
     }
 }
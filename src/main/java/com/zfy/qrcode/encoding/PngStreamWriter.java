@@ -0,0 +1,191 @@
+package com.zfy.qrcode.encoding;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 把模块矩阵直接写成 1 bit 灰度 PNG，逐行生成、逐行压缩，不需要整张图的像素数组和 Bitmap，
+ * 4000x4000 的二维码也只占用一行像素（500 字节）加上 Deflater 的缓冲。
+ * 纯 Java 实现，不依赖 Android；输出不含时间等信息，相同输入得到的字节完全相同。
+ * 缩放和留白与 {@link QrCodeRenderer} 相同。
+ */
+public class PngStreamWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private static final int BIT_DEPTH   = 1;
+    private static final int COLOR_GRAY  = 0; // 灰度，1 bit 时 0 为黑、1 为白
+    private static final int FILTER_NONE = 0;
+    private static final int CHUNK_SIZE  = 64 * 1024; // 每个 IDAT 的最大数据量
+
+    /**
+     * 写出 PNG，不关闭 out
+     *
+     * @param modules 模块矩阵，1 为黑
+     * @param width   像素宽
+     * @param height  像素高
+     * @param margin  空白边距的模块数
+     * @param out     输出
+     */
+    public static void write(ByteMatrix modules, int width, int height, int margin, OutputStream out)
+            throws IOException {
+        // PNG 不允许 0 宽高
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Requested dimensions are too small: " + width + 'x' + height);
+        }
+        QrCodeRenderer.Layout layout = new QrCodeRenderer.Layout(modules, width, height, margin);
+        out.write(SIGNATURE);
+        writeHeader(out, width, height);
+
+        ChunkOutputStream idat = new ChunkOutputStream(out, "IDAT");
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream deflated = new DeflaterOutputStream(idat, deflater, 8192);
+            // 每行第一个字节是过滤方式
+            byte[] row = new byte[1 + (width + 7) / 8];
+            int lastModuleRow = -2;
+            for (int y = 0; y < height; y++) {
+                int moduleRow = layout.moduleRowAt(y);
+                // 同一模块行的像素行相同，只生成一次
+                if (moduleRow != lastModuleRow) {
+                    fillRow(modules, layout, moduleRow, row);
+                    lastModuleRow = moduleRow;
+                }
+                deflated.write(row);
+            }
+            deflated.finish();
+            idat.flushChunk();
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    private static void writeHeader(OutputStream out, int width, int height) throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_GRAY;
+        header[10] = 0; // compression: deflate
+        header[11] = 0; // filter method
+        header[12] = 0; // interlace: none
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    // 先整行置白，再把黑色模块对应的位清零
+    private static void fillRow(ByteMatrix modules, QrCodeRenderer.Layout layout, int moduleRow, byte[] row) {
+        row[0] = FILTER_NONE;
+        Arrays.fill(row, 1, row.length, (byte) 0xff);
+        int width = layout.width;
+        // 最后一个字节中超出宽度的位按规范可以是任意值，这里保持为 1
+        if (moduleRow < 0) {
+            return;
+        }
+        byte[] moduleBits = modules.getArray()[moduleRow];
+        int inputX = 0;
+        while (inputX < layout.inputWidth) {
+            if (moduleBits[inputX] != 1) {
+                inputX++;
+                continue;
+            }
+            int end = inputX + 1;
+            while (end < layout.inputWidth && moduleBits[end] == 1) {
+                end++;
+            }
+            clearBits(row, layout.leftPadding + inputX * layout.multiple,
+                    Math.min(layout.leftPadding + end * layout.multiple, width));
+            inputX = end;
+        }
+    }
+
+    // 把像素 [from, to) 对应的位清零，整字节的部分直接填 0
+    private static void clearBits(byte[] row, int from, int to) {
+        while (from < to && (from & 7) != 0) {
+            row[1 + (from >> 3)] &= ~(0x80 >>> (from & 7));
+            from++;
+        }
+        int fullEnd = to & ~7;
+        if (from < fullEnd) {
+            Arrays.fill(row, 1 + (from >> 3), 1 + (fullEnd >> 3), (byte) 0);
+            from = fullEnd;
+        }
+        while (from < to) {
+            row[1 + (from >> 3)] &= ~(0x80 >>> (from & 7));
+            from++;
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        byte[] lengthBytes = new byte[4];
+        putInt(lengthBytes, 0, length);
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+        out.write(crcBytes);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * 攒够 CHUNK_SIZE 字节就写出一个 chunk
+     */
+    private static class ChunkOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+        private final String       mType;
+        private final byte[]       mBuffer = new byte[CHUNK_SIZE];
+        private       int          mCount;
+
+        ChunkOutputStream(OutputStream out, String type) {
+            mOut = out;
+            mType = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                flushChunk();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mCount == mBuffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, mBuffer.length - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, n);
+                mCount += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (mCount > 0) {
+                writeChunk(mOut, mType, mBuffer, mCount);
+                mCount = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.zfy.qrcode.encoding;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView;
+
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.R;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步生成二维码，在后台线程生成，结果在主线程回调。
+ * 开启缓存（{@link QrCode#QR_ENCODE_CACHE_ENABLE}）时，参数完全相同、正在生成的请求合并为一次生成，
+ * 同一个 Bitmap 分发给每个调用方，所有调用方都取消后还没开始的生成直接跳过；
+ * 关闭缓存时每个请求单独生成，调用方拿到的 Bitmap 归自己所有，可以交给 {@link QrCode#releaseQRCode} 复用。
+ * 绑定到 ImageView 时，同一个 View 重新绑定会取消上一次的请求，列表中被复用的 View 不会收到旧的结果。
+ */
+public class QrCodeAsyncEncoder {
+
+    /**
+     * 结果回调，在主线程
+     */
+    public interface Callback {
+
+        /**
+         * @param content 内容
+         * @param bitmap  二维码，失败为 null；开启缓存时可能与其他调用方（包括合并的请求）共享，不要修改或回收
+         */
+        void onResult(String content, Bitmap bitmap);
+    }
+
+    /**
+     * 一次异步生成
+     */
+    public static class Task {
+
+        private volatile boolean  mCancelled;
+        private volatile Callback mCallback;
+
+        /**
+         * 取消，之后不会再回调；所有合并的请求都取消且还没开始时不再生成
+         */
+        public void cancel() {
+            mCancelled = true;
+            // 尽早释放回调引用的 View
+            mCallback = null;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private final Handler                       mMainHandler = new Handler(Looper.getMainLooper());
+    // 正在生成的请求，key 相同的合并
+    private final Map<QrCodeCache.Key, Request> mInFlight    = new HashMap<>();
+    private volatile Executor                   mExecutor;
+
+    // 默认线程池，所有实例共用，第一次用到时创建
+    private static class DefaultExecutorHolder {
+        static final Executor EXECUTOR = createDefaultExecutor();
+    }
+
+    /**
+     * @param executor 生成所在的线程池，为 null 时使用默认的后台线程池
+     */
+    public QrCodeAsyncEncoder(Executor executor) {
+        setExecutor(executor);
+    }
+
+    /**
+     * 替换线程池，只影响之后提交的请求
+     *
+     * @param executor 为 null 时使用默认的后台线程池
+     */
+    public void setExecutor(Executor executor) {
+        mExecutor = executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * 异步生成二维码
+     *
+     * @param content   内容
+     * @param widthPix  宽
+     * @param heightPix 高
+     * @param logoBm    logo，可以为 null，不会被回收
+     * @param callback  主线程回调
+     * @return 可以用来取消的 Task
+     */
+    public Task encode(String content, int widthPix, int heightPix, Bitmap logoBm, Callback callback) {
+        Task task = new Task();
+        submit(task, content, widthPix, heightPix, logoBm, callback);
+        return task;
+    }
+
+    /**
+     * 异步生成二维码并显示到 ImageView，同一个 View 之前的请求会被取消
+     *
+     * @param view      显示的 View
+     * @param content   内容
+     * @param widthPix  宽
+     * @param heightPix 高
+     * @param logoBm    logo，可以为 null
+     * @return 可以用来取消的 Task
+     */
+    public Task into(final ImageView view, String content, int widthPix, int heightPix, Bitmap logoBm) {
+        Object previous = view.getTag(R.id.qr_code_encode_task);
+        if (previous instanceof Task) {
+            ((Task) previous).cancel();
+        }
+        final Task task = new Task();
+        view.setTag(R.id.qr_code_encode_task, task);
+        submit(task, content, widthPix, heightPix, logoBm, new Callback() {
+            @Override
+            public void onResult(String content, Bitmap bitmap) {
+                // View 已经绑定了别的请求
+                if (view.getTag(R.id.qr_code_encode_task) != task) {
+                    return;
+                }
+                view.setTag(R.id.qr_code_encode_task, null);
+                if (bitmap != null) {
+                    view.setImageBitmap(bitmap);
+                }
+            }
+        });
+        return task;
+    }
+
+    private void submit(Task task, String content, int widthPix, int heightPix, Bitmap logoBm, Callback callback) {
+        task.mCallback = callback;
+        if (content == null || "".equals(content)) {
+            deliver(task, content, null);
+            return;
+        }
+        // 不开启缓存时结果归调用方所有，不能把同一个 Bitmap 交给多个调用方，不合并
+        QrCodeCache.Key key = QrCode.QR_ENCODE_CACHE_ENABLE
+                ? EncodingUtils.cacheKey(content, widthPix, heightPix, logoBm, Bitmap.Config.ARGB_8888) : null;
+        Request request;
+        synchronized (mInFlight) {
+            request = key == null ? null : mInFlight.get(key);
+            if (request != null) {
+                request.mTasks.add(task);
+                return;
+            }
+            request = new Request(key, content, widthPix, heightPix, logoBm);
+            request.mTasks.add(task);
+            if (key != null) {
+                mInFlight.put(key, request);
+            }
+        }
+        try {
+            mExecutor.execute(request);
+        } catch (RejectedExecutionException e) {
+            request.finish(null);
+        }
+    }
+
+    private void deliver(final Task task, final String content, final Bitmap bitmap) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback = task.mCallback;
+                if (!task.isCancelled() && callback != null) {
+                    task.mCallback = null;
+                    callback.onResult(content, bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * 一次生成，可能对应多个合并的 Task
+     */
+    private class Request implements Runnable {
+
+        private final QrCodeCache.Key mKey; // 不合并时为 null
+        private final String          mContent;
+        private final int             mWidth;
+        private final int             mHeight;
+        private final Bitmap          mLogo;
+        private final List<Task>      mTasks = new ArrayList<>(1); // 由 mInFlight 保护
+
+        Request(QrCodeCache.Key key, String content, int width, int height, Bitmap logo) {
+            mKey = key;
+            mContent = content;
+            mWidth = width;
+            mHeight = height;
+            mLogo = logo;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mInFlight) {
+                if (allCancelled()) {
+                    removeInFlight();
+                    return;
+                }
+            }
+            Bitmap bitmap = null;
+            try {
+                bitmap = EncodingUtils.createQRCode(mContent, mWidth, mHeight, mLogo);
+            } finally {
+                finish(bitmap);
+            }
+        }
+
+        void finish(Bitmap bitmap) {
+            List<Task> tasks;
+            synchronized (mInFlight) {
+                removeInFlight();
+                tasks = new ArrayList<>(mTasks);
+            }
+            for (Task task : tasks) {
+                if (!task.isCancelled()) {
+                    deliver(task, mContent, bitmap);
+                }
+            }
+        }
+
+        private void removeInFlight() {
+            if (mKey != null) {
+                mInFlight.remove(mKey);
+            }
+        }
+
+        private boolean allCancelled() {
+            for (Task task : mTasks) {
+                if (!task.isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static Executor createDefaultExecutor() {
+        int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "QrEncode-" + mCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,344 @@
+package com.zfy.qrcode.encoding;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.zfy.qrcode.QrCode;
+import com.zfy.qrcode.utils.PayloadCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量生成二维码，直接写到文件或 OutputStream。
+ * 一个线程从 Iterator 里取内容放进有界队列，多个线程从队列里取出生成并写出，
+ * 队列满时读取方等待，内容可以是惰性生成的，不会一次全部读进内存；
+ * PNG 由 {@link PngStreamWriter} 逐行写出，不经过 Bitmap；RAW 同样逐行渲染、打包，每个线程只复用一行的缓冲，
+ * 内存占用与二维码大小和总数量都无关。
+ * 每一项的结果和整体完成都在主线程回调。
+ */
+public class QrCodeBulkWriter {
+
+    public static final String TAG = QrCodeBulkWriter.class.getSimpleName();
+
+    /**
+     * 输出格式
+     */
+    public enum Format {
+        PNG, // 1 bit 灰度 PNG
+        RAW // 每行 (width + 7) / 8 字节，高位在前，1 为黑，没有文件头
+    }
+
+    /**
+     * 每一项的输出目标
+     */
+    public interface Sink {
+
+        /**
+         * 打开第 index 项的输出流，写完后由 QrCodeBulkWriter 关闭
+         *
+         * @param index   第几项，从 0 开始
+         * @param content 内容
+         */
+        OutputStream open(int index, String content) throws IOException;
+    }
+
+    /**
+     * 进度回调，都在主线程
+     */
+    public interface Callback {
+
+        /**
+         * 一项完成
+         *
+         * @param index     第几项
+         * @param content   内容
+         * @param error     失败原因，成功为 null
+         * @param completed 已经完成的项数（包括失败的）
+         */
+        void onProgress(int index, String content, Exception error, int completed);
+
+        /**
+         * 全部完成或被取消，只回调一次
+         *
+         * @param completed 完成的项数
+         * @param failed    其中失败的项数
+         * @param cancelled 是否被取消
+         */
+        void onComplete(int completed, int failed, boolean cancelled);
+    }
+
+    /**
+     * 一次批量生成
+     */
+    public static class Task {
+
+        private volatile boolean mCancelled;
+
+        /**
+         * 取消，正在写的项会写完，之后不再开始新的项
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * 按序号写到目录中，文件名为 prefix + index + 扩展名
+     *
+     * @param dir    目录
+     * @param prefix 文件名前缀
+     * @param format 输出格式，决定扩展名
+     */
+    public static Sink directorySink(final File dir, final String prefix, final Format format) {
+        return new Sink() {
+            @Override
+            public OutputStream open(int index, String content) throws IOException {
+                if (!dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("mkdirs " + dir + " failed");
+                }
+                String name = prefix + index + (format == Format.PNG ? ".png" : ".raw");
+                return new FileOutputStream(new File(dir, name));
+            }
+        };
+    }
+
+    // 队列结束的标记
+    private static final Item END = new Item(-1, null);
+
+    private static class Item {
+        final int    index;
+        final String content;
+
+        Item(int index, String content) {
+            this.index = index;
+            this.content = content;
+        }
+    }
+
+    private final int                  mWidth;
+    private final int                  mHeight;
+    private final Format               mFormat;
+    private final ErrorCorrectionLevel mLevel;
+    private final int                  mThreadCount;
+    private final boolean              mOptimizeSegments = QrCode.QR_ENCODE_OPTIMIZE_SEGMENTS;
+    private final boolean              mCompressPayload  = QrCode.QR_ENCODE_COMPRESS_PAYLOAD;
+    private final Handler              mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param width       二维码宽
+     * @param height      二维码高
+     * @param format      输出格式
+     * @param level       容错级别
+     * @param threadCount 线程数，小于等于 0 时使用全部 CPU 核
+     */
+    public QrCodeBulkWriter(int width, int height, Format format, ErrorCorrectionLevel level, int threadCount) {
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mLevel = level;
+        mThreadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * 开始批量生成
+     *
+     * @param contents 内容，只在一个后台线程中读取
+     * @param sink     输出目标
+     * @param callback 主线程回调，可以为 null
+     * @return 可以用来取消的 Task
+     */
+    public Task start(final Iterator<String> contents, final Sink sink, final Callback callback) {
+        final Task task = new Task();
+        final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(mThreadCount * 2);
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger(mThreadCount);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int index = 0;
+                try {
+                    while (!task.isCancelled() && contents.hasNext()) {
+                        queue.put(new Item(index++, contents.next()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    // Iterator 本身出错，已经放进队列的项照常完成
+                    Log.w(TAG, e);
+                } finally {
+                    for (int i = 0; i < mThreadCount; i++) {
+                        putUninterruptibly(queue, END);
+                    }
+                }
+            }
+        }, "QrBulkReader");
+        producer.start();
+
+        for (int i = 0; i < mThreadCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    Worker worker = new Worker();
+                    try {
+                        while (true) {
+                            Item item = queue.take();
+                            if (item == END) {
+                                break;
+                            }
+                            if (task.isCancelled()) {
+                                // 继续取，直到读到结束标记，让读取线程不会卡在队列满上
+                                continue;
+                            }
+                            Exception error = worker.write(item, sink);
+                            if (error != null) {
+                                failed.incrementAndGet();
+                            }
+                            postProgress(callback, item, error, completed.incrementAndGet());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        if (running.decrementAndGet() == 0) {
+                            postComplete(callback, completed.get(), failed.get(), task.isCancelled());
+                        }
+                    }
+                }
+            }, "QrBulkWriter-" + i);
+            worker.start();
+        }
+        return task;
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Item> queue, Item item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void postProgress(final Callback callback, final Item item, final Exception error, final int completed) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onProgress(item.index, item.content, error, completed);
+            }
+        });
+    }
+
+    private void postComplete(final Callback callback, final int completed, final int failed, final boolean cancelled) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(completed, failed, cancelled);
+            }
+        });
+    }
+
+    /**
+     * 每个线程一个，复用 RAW 格式的行缓冲
+     */
+    private class Worker {
+
+        private int[]  mPixels; // 一行像素
+        private byte[] mRow;
+
+        Exception write(Item item, Sink sink) {
+            OutputStream out = null;
+            try {
+                String payload = mCompressPayload ? PayloadCodec.encodeIfSmaller(item.content) : item.content;
+                ByteMatrix modules = QrCodeRenderer.encode(payload, mLevel, mOptimizeSegments).getMatrix();
+                out = new BufferedOutputStream(sink.open(item.index, item.content));
+                if (mFormat == Format.PNG) {
+                    PngStreamWriter.write(modules, mWidth, mHeight, QrCodeRenderer.DEFAULT_MARGIN, out);
+                } else {
+                    writeRaw(modules, out);
+                }
+                out.close();
+                out = null;
+                return null;
+            } catch (WriterException | IOException | RuntimeException e) {
+                return e;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        private void writeRaw(ByteMatrix modules, OutputStream out) throws IOException {
+            QrCodeRenderer.Layout layout = new QrCodeRenderer.Layout(modules, mWidth, mHeight,
+                    QrCodeRenderer.DEFAULT_MARGIN);
+            if (mPixels == null) {
+                mPixels = new int[mWidth];
+            }
+            int rowBytes = (mWidth + 7) / 8;
+            if (mRow == null) {
+                mRow = new byte[rowBytes];
+            }
+            int lastModuleRow = -2;
+            for (int y = 0; y < mHeight; y++) {
+                int moduleRow = layout.moduleRowAt(y);
+                // 同一模块行的像素行相同，只渲染、打包一次
+                if (moduleRow != lastModuleRow) {
+                    QrCodeRenderer.renderRow(modules, layout, y, QrCodeRenderer.BLACK, QrCodeRenderer.WHITE, mPixels);
+                    packRow(mPixels, mRow);
+                    lastModuleRow = moduleRow;
+                }
+                out.write(mRow, 0, rowBytes);
+            }
+        }
+
+        // 每 8 个像素打包成一个字节，高位在前，1 为黑
+        private void packRow(int[] pixels, byte[] row) {
+            for (int i = 0; i < row.length; i++) {
+                int bits = 0;
+                int x = i * 8;
+                int end = Math.min(x + 8, mWidth);
+                for (int bit = 7; x < end; x++, bit--) {
+                    if (pixels[x] == QrCodeRenderer.BLACK) {
+                        bits |= 1 << bit;
+                    }
+                }
+                row[i] = (byte) bits;
+            }
+        }
+    }
+}
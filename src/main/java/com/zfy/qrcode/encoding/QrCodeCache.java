@@ -0,0 +1,300 @@
+package com.zfy.qrcode.encoding;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成的二维码 Bitmap 缓存。
+ * 内存中是按字节数限制大小的 LruCache；设置了磁盘目录时，没有 logo 的二维码同时压缩成 PNG 写入磁盘，
+ * 磁盘总大小超过上限时按最近使用时间淘汰。带 logo 或背景的二维码只缓存在内存，它们的身份跨进程不稳定；
+ * 非 ARGB_8888 的也只缓存在内存，PNG 读回来是 ARGB_8888。
+ * 缓存中的 Bitmap 会返回给多个调用方共享，不要修改或回收；已经被回收的会当作没有缓存重新生成。
+ */
+public class QrCodeCache {
+
+    public static final String TAG = QrCodeCache.class.getSimpleName();
+
+    private static final String SUFFIX = ".png";
+
+    /**
+     * 缓存 key，包含所有影响生成结果的参数
+     */
+    public static final class Key {
+
+        private final String               content;
+        private final int                  width;
+        private final int                  height;
+        private final ErrorCorrectionLevel level;
+        private final int                  margin;
+        private final int                  black;
+        private final int                  white;
+        private final Bitmap.Config        config;
+        private final boolean              hasLogo;
+        // logo 的身份：对象本身 + 像素版本，logo 内容被修改后 generationId 会变
+        private final BitmapRef            logo;
+        private final boolean              hasBackground;
+        private final BitmapRef            background;
+        private final boolean              optimizeSegments; // 分段编码的结果与单一模式不同
+
+        public Key(String content, int width, int height, ErrorCorrectionLevel level, int margin,
+                   int black, int white, Bitmap logo, Bitmap.Config config) {
+            this(content, width, height, level, margin, black, white, logo, null, false, config);
+        }
+
+        public Key(String content, int width, int height, ErrorCorrectionLevel level, int margin,
+                   int black, int white, Bitmap logo, Bitmap background, boolean optimizeSegments,
+                   Bitmap.Config config) {
+            this.content = content;
+            this.width = width;
+            this.height = height;
+            this.level = level;
+            this.margin = margin;
+            this.black = black;
+            this.white = white;
+            this.config = config;
+            this.optimizeSegments = optimizeSegments;
+            this.hasLogo = logo != null;
+            this.logo = BitmapRef.of(logo);
+            this.hasBackground = background != null;
+            this.background = BitmapRef.of(background);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return width == key.width && height == key.height && margin == key.margin
+                    && black == key.black && white == key.white && hasLogo == key.hasLogo
+                    && BitmapRef.equals(logo, key.logo)
+                    && hasBackground == key.hasBackground && BitmapRef.equals(background, key.background)
+                    && optimizeSegments == key.optimizeSegments
+                    && level == key.level && config == key.config && content.equals(key.content);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = content.hashCode();
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + level.hashCode();
+            result = 31 * result + margin;
+            result = 31 * result + black;
+            result = 31 * result + white;
+            result = 31 * result + config.hashCode();
+            result = 31 * result + BitmapRef.hashCode(logo);
+            result = 31 * result + BitmapRef.hashCode(background);
+            result = 31 * result + (optimizeSegments ? 1 : 0);
+            return result;
+        }
+
+        // 磁盘文件名，内容可能很长，取摘要
+        String toFileName() {
+            String raw = content + '\n' + width + 'x' + height + '\n' + level + '\n' + margin + '\n'
+                    + Integer.toHexString(black) + '\n' + Integer.toHexString(white)
+                    + (optimizeSegments ? "\nsegments" : "");
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                byte[] hash = digest.digest(raw.getBytes("UTF-8"));
+                StringBuilder sb = new StringBuilder(hash.length * 2 + SUFFIX.length());
+                for (byte b : hash) {
+                    sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return sb.append(SUFFIX).toString();
+            } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final LruCache<Key, Bitmap> mMemoryCache;
+    private final File                  mDiskDir;
+    private final long                  mMaxDiskBytes;
+    private       long                  mDiskBytes = -1; // 首次用到磁盘时统计
+    // 写磁盘放在后台单线程，不阻塞生成
+    private final ExecutorService       mDiskExecutor;
+
+    /**
+     * @param maxMemoryBytes 内存缓存的字节数上限
+     * @param diskDir        磁盘缓存目录，为 null 时只缓存在内存
+     * @param maxDiskBytes   磁盘缓存的字节数上限
+     */
+    public QrCodeCache(int maxMemoryBytes, File diskDir, long maxDiskBytes) {
+        mMemoryCache = new LruCache<Key, Bitmap>(Math.max(1, maxMemoryBytes)) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mDiskDir = diskDir;
+        mMaxDiskBytes = maxDiskBytes;
+        if (diskDir != null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            mDiskExecutor = executor;
+        } else {
+            mDiskExecutor = null;
+        }
+    }
+
+    /**
+     * @return 缓存的二维码，没有时返回 null
+     */
+    public Bitmap get(Key key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            if (!bitmap.isRecycled()) {
+                return bitmap;
+            }
+            mMemoryCache.remove(key);
+        }
+        if (!isDiskCacheable(key)) {
+            return null;
+        }
+        File file = new File(mDiskDir, key.toFileName());
+        if (!file.exists()) {
+            return null;
+        }
+        bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        if (bitmap == null) {
+            return null;
+        }
+        // 更新使用时间，淘汰时按它排序
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            Log.w(TAG, "touch " + file + " failed");
+        }
+        mMemoryCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    public void put(final Key key, final Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        mMemoryCache.put(key, bitmap);
+        if (!isDiskCacheable(key)) {
+            return;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeToDisk(key, bitmap);
+            }
+        });
+    }
+
+    private boolean isDiskCacheable(Key key) {
+        return mDiskDir != null && !key.hasLogo && !key.hasBackground && key.config == Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * 清空内存缓存，磁盘缓存保留
+     */
+    public void evictMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    // 只在磁盘线程调用
+    private void writeToDisk(Key key, Bitmap bitmap) {
+        if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+            return;
+        }
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            for (File file : listCacheFiles()) {
+                mDiskBytes += file.length();
+            }
+        }
+        File file = new File(mDiskDir, key.toFileName());
+        if (file.exists()) {
+            return;
+        }
+        File tmp = new File(mDiskDir, file.getName() + ".tmp");
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tmp));
+            // 调用方可能已经回收了 Bitmap，compress 会抛异常
+            written = !bitmap.isRecycled() && bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                }
+            }
+        }
+        if (!written || !tmp.renameTo(file)) {
+            if (!tmp.delete()) {
+                Log.w(TAG, "delete " + tmp + " failed");
+            }
+            return;
+        }
+        mDiskBytes += file.length();
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        File[] files = listCacheFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (mDiskBytes <= mMaxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    private File[] listCacheFiles() {
+        File[] files = mDiskDir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+}
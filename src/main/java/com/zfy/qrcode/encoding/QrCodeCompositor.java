@@ -0,0 +1,293 @@
+package com.zfy.qrcode.encoding;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.LruCache;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 带 logo、背景的二维码合成。
+ * logo 和背景按目标大小缩放一次后缓存，同样大小的二维码不再重复缩放；
+ * 二维码逐行渲染并直接与背景合成写入目标 Bitmap，logo 最后画在中间，只有一次渲染，不产生额外的整图 Bitmap。
+ * 行缓冲、Layout、素材 key 和 Canvas 按线程复用，同样大小、同样素材反复合成时不再分配对象。
+ * 传入的 logo、背景和目标 Bitmap 都属于调用方，这里不会回收。
+ * 线程安全。
+ */
+public class QrCodeCompositor {
+
+    private static final int LOGO_RATIO = 5; // logo 宽度为二维码宽度的 1/5
+    private static final int POOL_SIZE  = 2;
+
+    private static final int KIND_LOGO       = 1;
+    private static final int KIND_BACKGROUND = 2;
+
+    /**
+     * 缩放后素材的 key：原图对象 + 像素版本 + 目标大小
+     */
+    private static final class AssetKey {
+
+        private final int       kind;
+        private final BitmapRef source;
+        private final int       width;
+        private final int       height;
+
+        AssetKey(int kind, Bitmap source, int width, int height) {
+            this.kind = kind;
+            this.source = new BitmapRef(source);
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean matches(Bitmap source, int width, int height) {
+            return this.source.refersTo(source) && this.width == width && this.height == height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AssetKey)) {
+                return false;
+            }
+            AssetKey key = (AssetKey) o;
+            return kind == key.kind && source.equals(key.source)
+                    && width == key.width && height == key.height;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = kind;
+            result = 31 * result + source.hashCode();
+            result = 31 * result + width;
+            result = 31 * result + height;
+            return result;
+        }
+    }
+
+    /**
+     * 每个线程复用的合成状态
+     */
+    private static final class ComposeState {
+
+        int[]                 row; // 渲染行
+        int[]                 merged; // 与背景合成后的行
+        QrCodeRenderer.Layout layout;
+        int                   margin;
+        AssetKey              backgroundKey; // 上一次用到的素材 key，同一素材同样大小时直接复用
+        AssetKey              logoKey;
+        Canvas                canvas;
+
+        void ensureRows(int width) {
+            if (row == null || row.length < width) {
+                row = new int[width];
+                merged = new int[width];
+            }
+        }
+
+        // Layout 只取决于模块数、目标大小和边距
+        QrCodeRenderer.Layout layout(ByteMatrix modules, int width, int height, int margin) {
+            QrCodeRenderer.Layout last = layout;
+            if (last == null || last.width != width || last.height != height || this.margin != margin
+                    || last.inputWidth != modules.getWidth() || last.inputHeight != modules.getHeight()) {
+                layout = new QrCodeRenderer.Layout(modules, width, height, margin);
+                this.margin = margin;
+            }
+            return layout;
+        }
+
+        AssetKey backgroundKey(Bitmap background, int width, int height) {
+            if (backgroundKey == null || !backgroundKey.matches(background, width, height)) {
+                backgroundKey = new AssetKey(KIND_BACKGROUND, background, width, height);
+            }
+            return backgroundKey;
+        }
+
+        AssetKey logoKey(Bitmap logo, int width, int height) {
+            if (logoKey == null || !logoKey.matches(logo, width, height)) {
+                logoKey = new AssetKey(KIND_LOGO, logo, width, height);
+            }
+            return logoKey;
+        }
+
+        Canvas canvas(Bitmap target) {
+            if (canvas == null) {
+                canvas = new Canvas();
+            }
+            canvas.setBitmap(target);
+            return canvas;
+        }
+    }
+
+    private static final ThreadLocal<ComposeState> sState = new ThreadLocal<ComposeState>() {
+        @Override
+        protected ComposeState initialValue() {
+            return new ComposeState();
+        }
+    };
+
+    // 缩放后的素材，淘汰时不回收，可能与原图是同一个对象
+    private final LruCache<AssetKey, Bitmap> mAssets;
+    private final ArrayDeque<Bitmap>         mPool = new ArrayDeque<>(POOL_SIZE);
+    private volatile Bitmap                  mBackground;
+
+    /**
+     * @param maxAssetBytes 缩放后素材缓存的字节数上限
+     */
+    public QrCodeCompositor(int maxAssetBytes) {
+        mAssets = new LruCache<AssetKey, Bitmap>(Math.max(1, maxAssetBytes)) {
+            @Override
+            protected int sizeOf(AssetKey key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * 设置背景，白色模块处显示背景，为 null 时不画背景
+     */
+    public void setBackground(Bitmap background) {
+        mBackground = background;
+    }
+
+    public Bitmap getBackground() {
+        return mBackground;
+    }
+
+    /**
+     * @return 是否需要合成，不需要时直接渲染二维码即可
+     */
+    public boolean needsCompose(Bitmap logo) {
+        return logo != null || mBackground != null;
+    }
+
+    /**
+     * 合成到目标 Bitmap，目标的宽高就是二维码的宽高。没有 logo 和背景时就是逐行渲染二维码
+     *
+     * @param modules 模块矩阵
+     * @param margin  空白边距的模块数
+     * @param black   黑色模块的颜色
+     * @param white   白色模块的颜色，有背景时不使用
+     * @param logo    logo，可以为 null
+     * @param target  目标，必须可修改
+     */
+    public void compose(ByteMatrix modules, int margin, int black, int white, Bitmap logo, Bitmap target) {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        ComposeState state = sState.get();
+        QrCodeRenderer.Layout layout = state.layout(modules, width, height, margin);
+        Bitmap background = scaledBackground(state, width, height);
+        state.ensureRows(width);
+        int[] row = state.row;
+        int[] merged = background == null ? row : state.merged;
+        int lastModuleRow = -2;
+        for (int y = 0; y < height; y++) {
+            int moduleRow = layout.moduleRowAt(y);
+            // 同一模块行的像素行相同，只渲染一次；有背景时白色用透明表示
+            if (moduleRow != lastModuleRow) {
+                QrCodeRenderer.renderRow(modules, layout, y, black, background == null ? white : 0, row);
+                lastModuleRow = moduleRow;
+            }
+            if (background != null) {
+                background.getPixels(merged, 0, width, 0, y, width, 1);
+                for (int x = 0; x < width; x++) {
+                    if (row[x] != 0) {
+                        merged[x] = row[x];
+                    }
+                }
+            }
+            target.setPixels(merged, 0, width, 0, y, width, 1);
+        }
+        Bitmap scaledLogo = scaledLogo(state, logo, width);
+        if (scaledLogo != null) {
+            Canvas canvas = state.canvas(target);
+            canvas.drawBitmap(scaledLogo, (width - scaledLogo.getWidth()) / 2,
+                    (height - scaledLogo.getHeight()) / 2, null);
+            // 不让线程上的 Canvas 持有调用方的 Bitmap
+            canvas.setBitmap(null);
+        }
+    }
+
+    // 背景缩放到二维码大小
+    private Bitmap scaledBackground(ComposeState state, int width, int height) {
+        Bitmap background = mBackground;
+        if (background == null || background.isRecycled()) {
+            return null;
+        }
+        AssetKey key = state.backgroundKey(background, width, height);
+        Bitmap scaled = mAssets.get(key);
+        if (scaled == null || scaled.isRecycled()) {
+            scaled = Bitmap.createScaledBitmap(background, width, height, true);
+            mAssets.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    // logo 等比缩放到二维码宽度的 1/5
+    private Bitmap scaledLogo(ComposeState state, Bitmap logo, int width) {
+        if (logo == null || logo.isRecycled() || logo.getWidth() == 0 || logo.getHeight() == 0) {
+            return null;
+        }
+        int logoWidth = Math.max(1, width / LOGO_RATIO);
+        int logoHeight = Math.max(1, (int) ((long) logo.getHeight() * logoWidth / logo.getWidth()));
+        AssetKey key = state.logoKey(logo, logoWidth, logoHeight);
+        Bitmap scaled = mAssets.get(key);
+        if (scaled == null || scaled.isRecycled()) {
+            scaled = Bitmap.createScaledBitmap(logo, logoWidth, logoHeight, true);
+            mAssets.put(key, scaled);
+        }
+        return scaled;
+    }
+
+    /**
+     * 从池中取一个指定大小的 ARGB_8888 Bitmap，没有时新建，内容不确定
+     */
+    public Bitmap obtain(int width, int height) {
+        synchronized (mPool) {
+            Iterator<Bitmap> iterator = mPool.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.isRecycled()) {
+                    iterator.remove();
+                } else if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 把不再使用的 Bitmap 放回池中，池满时丢弃最早放入的
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        synchronized (mPool) {
+            if (mPool.contains(bitmap)) {
+                return;
+            }
+            if (mPool.size() == POOL_SIZE) {
+                mPool.pollFirst();
+            }
+            mPool.addLast(bitmap);
+        }
+    }
+
+    /**
+     * 清空缩放后的素材和 Bitmap 池
+     */
+    public void clear() {
+        mAssets.evictAll();
+        synchronized (mPool) {
+            mPool.clear();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.zfy.qrcode.encoding;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 二维码像素生成，只依赖 zxing，不依赖 Android，可以在 JVM 上做基准测试。
+ * 生成 Bitmap 见 {@link EncodingUtils}
+ * <p>
+ * 直接使用 Encoder 得到的模块矩阵，按模块而不是按像素渲染：每个模块行只用 Arrays.fill 填一行像素，
+ * 同一模块行剩下的像素行整行复制，不再对每个像素调用 BitMatrix.get。
+ * 缩放和留白与 QRCodeWriter 完全一致，输出的像素相同。
+ */
+public class QrCodeRenderer {
+
+    public static final int BLACK = 0xff000000;
+    public static final int WHITE = 0xffffffff;
+
+    public static final int DEFAULT_MARGIN = 2; // 空白边距的模块数，QRCodeWriter 默认是 4
+
+    /**
+     * 生成二维码的 ARGB 像素
+     *
+     * @param content   内容
+     * @param widthPix  宽
+     * @param heightPix 高
+     * @return widthPix * heightPix 的像素数组
+     */
+    public static int[] renderPixels(String content, int widthPix, int heightPix) throws WriterException {
+        int[] pixels = new int[widthPix * heightPix];
+        render(encode(content, ErrorCorrectionLevel.H).getMatrix(), widthPix, heightPix, DEFAULT_MARGIN,
+                BLACK, WHITE, pixels);
+        return pixels;
+    }
+
+    /**
+     * 编码得到模块矩阵，只做一次，之后可以按不同大小渲染
+     *
+     * @param content 内容
+     * @param level   容错级别
+     * @return 二维码
+     */
+    public static QRCode encode(String content, ErrorCorrectionLevel level) throws WriterException {
+        return encode(content, level, false);
+    }
+
+    /**
+     * @param content          内容
+     * @param level            容错级别
+     * @param optimizeSegments 是否分段编码以使用更小的版本，见 {@link QrSegmentEncoder}
+     * @return 二维码
+     */
+    public static QRCode encode(String content, ErrorCorrectionLevel level, boolean optimizeSegments)
+            throws WriterException {
+        if (content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("Found empty contents");
+        }
+        if (optimizeSegments) {
+            return QrSegmentEncoder.encode(content, level);
+        }
+        // 配置参数
+        Map<EncodeHintType, Object> hints = new HashMap<>();
+        hints.put(EncodeHintType.CHARACTER_SET, "utf-8");
+        return Encoder.encode(content, level, hints);
+    }
+
+    /**
+     * 把模块矩阵渲染到像素数组，缩放方式与 QRCodeWriter 相同：
+     * 每个模块取整数倍大小，居中，剩余部分为白色；二维码比给定大小还大时只保留左上角的 width * height。
+     *
+     * @param modules 模块矩阵，1 为黑
+     * @param width   像素宽
+     * @param height  像素高
+     * @param margin  空白边距的模块数
+     * @param black   黑色模块的颜色
+     * @param white   白色模块和留白的颜色
+     * @param pixels  输出，长度至少为 width * height
+     */
+    public static void render(ByteMatrix modules, int width, int height, int margin,
+                              int black, int white, int[] pixels) {
+        Layout layout = new Layout(modules, width, height, margin);
+        // 上方留白
+        int y = Math.min(layout.topPadding, height);
+        Arrays.fill(pixels, 0, y * width, white);
+        for (int inputY = 0; inputY < layout.inputHeight && y < height; inputY++) {
+            int rowStart = y * width;
+            // 先渲染这个模块行的第一行像素
+            renderModuleRow(modules.getArray()[inputY], layout, black, white, pixels, rowStart);
+            // 同一模块行的其余像素行直接复制
+            int rowEnd = Math.min(y + layout.multiple, height);
+            for (int copyY = y + 1; copyY < rowEnd; copyY++) {
+                System.arraycopy(pixels, rowStart, pixels, copyY * width, width);
+            }
+            y = rowEnd;
+        }
+        // 下方留白
+        Arrays.fill(pixels, y * width, height * width, white);
+    }
+
+    /**
+     * 渲染第 y 行像素，用于逐行输出（Bitmap.setPixels、流式写文件），不需要整张图的像素数组
+     *
+     * @param modules 模块矩阵
+     * @param layout  布局
+     * @param y       像素行
+     * @param black   黑色模块的颜色
+     * @param white   白色模块和留白的颜色
+     * @param row     输出，长度至少为 layout.width
+     */
+    public static void renderRow(ByteMatrix modules, Layout layout, int y, int black, int white, int[] row) {
+        int inputY = layout.moduleRowAt(y);
+        if (inputY < 0) {
+            Arrays.fill(row, 0, layout.width, white);
+        } else {
+            renderModuleRow(modules.getArray()[inputY], layout, black, white, row, 0);
+        }
+    }
+
+    private static void renderModuleRow(byte[] moduleRow, Layout layout, int black, int white,
+                                        int[] pixels, int rowStart) {
+        int width = layout.width;
+        int multiple = layout.multiple;
+        int leftPadding = layout.leftPadding;
+        fillSpan(pixels, rowStart, 0, leftPadding, width, white);
+        int inputX = 0;
+        while (inputX < layout.inputWidth) {
+            // 连续同色的模块合并成一次填充
+            byte value = moduleRow[inputX];
+            int end = inputX + 1;
+            while (end < layout.inputWidth && moduleRow[end] == value) {
+                end++;
+            }
+            fillSpan(pixels, rowStart, leftPadding + inputX * multiple, leftPadding + end * multiple,
+                    width, value == 1 ? black : white);
+            inputX = end;
+        }
+        fillSpan(pixels, rowStart, leftPadding + layout.inputWidth * multiple, width, width, white);
+    }
+
+    /**
+     * 模块到像素的布局，与 QRCodeWriter 的计算方式相同
+     */
+    public static final class Layout {
+
+        public final int width;
+        public final int height;
+        public final int inputWidth; // 模块数，不含空白边距
+        public final int inputHeight;
+        public final int multiple; // 每个模块的像素数
+        public final int leftPadding; // 含空白边距
+        public final int topPadding;
+
+        public Layout(ByteMatrix modules, int width, int height, int margin) {
+            if (width < 0 || height < 0) {
+                throw new IllegalArgumentException("Requested dimensions are too small: " + width + 'x' + height);
+            }
+            this.width = width;
+            this.height = height;
+            inputWidth = modules.getWidth();
+            inputHeight = modules.getHeight();
+            int qrWidth = inputWidth + (margin * 2);
+            int qrHeight = inputHeight + (margin * 2);
+            int outputWidth = Math.max(width, qrWidth);
+            int outputHeight = Math.max(height, qrHeight);
+
+            multiple = Math.min(outputWidth / qrWidth, outputHeight / qrHeight);
+            // Padding includes both the quiet zone and the extra white pixels to accommodate the requested
+            // dimensions.
+            leftPadding = (outputWidth - (inputWidth * multiple)) / 2;
+            topPadding = (outputHeight - (inputHeight * multiple)) / 2;
+        }
+
+        /**
+         * @return 第 y 行像素所在的模块行，在留白中返回 -1
+         */
+        public int moduleRowAt(int y) {
+            if (y < topPadding) {
+                return -1;
+            }
+            int inputY = (y - topPadding) / multiple;
+            return inputY < inputHeight ? inputY : -1;
+        }
+    }
+
+    /**
+     * 模块矩阵转成 1 bit 一个模块的 BitMatrix，包含空白边距，每个模块只占 1 bit
+     *
+     * @param modules 模块矩阵
+     * @param margin  空白边距的模块数
+     * @return (模块数 + 2 * margin) 见方的 BitMatrix，true 为黑
+     */
+    public static BitMatrix toBitMatrix(ByteMatrix modules, int margin) {
+        int inputWidth = modules.getWidth();
+        int inputHeight = modules.getHeight();
+        BitMatrix matrix = new BitMatrix(inputWidth + margin * 2, inputHeight + margin * 2);
+        byte[][] array = modules.getArray();
+        for (int y = 0; y < inputHeight; y++) {
+            byte[] row = array[y];
+            for (int x = 0; x < inputWidth; x++) {
+                if (row[x] == 1) {
+                    matrix.set(x + margin, y + margin);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * 生成 SVG，以模块为单位（viewBox 为模块数），可以任意缩放，打印时不失真。
+     * 每一行连续的黑色模块合并成一个矩形，所有矩形放在同一个 path 里。
+     *
+     * @param modules 模块矩阵
+     * @param margin  空白边距的模块数
+     * @param black   黑色模块的颜色
+     * @param white   背景色，完全透明时不画背景
+     * @return SVG 文本
+     */
+    public static String toSvg(ByteMatrix modules, int margin, int black, int white) {
+        int size = modules.getWidth() + margin * 2;
+        int sizeY = modules.getHeight() + margin * 2;
+        StringBuilder sb = new StringBuilder(modules.getWidth() * modules.getHeight() * 2);
+        sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 ").append(size).append(' ').append(sizeY)
+                .append("\" shape-rendering=\"crispEdges\">");
+        if ((white >>> 24) != 0) {
+            sb.append("<rect width=\"").append(size).append("\" height=\"").append(sizeY).append('"');
+            appendFill(sb, white);
+            sb.append("/>");
+        }
+        sb.append("<path");
+        appendFill(sb, black);
+        sb.append(" d=\"");
+        appendPathData(sb, modules, margin);
+        sb.append("\"/></svg>");
+        return sb.toString();
+    }
+
+    /**
+     * 只生成 SVG path 的 d 属性，坐标以模块为单位
+     *
+     * @param modules 模块矩阵
+     * @param margin  空白边距的模块数
+     * @return path 数据
+     */
+    public static String toPathData(ByteMatrix modules, int margin) {
+        StringBuilder sb = new StringBuilder(modules.getWidth() * modules.getHeight());
+        appendPathData(sb, modules, margin);
+        return sb.toString();
+    }
+
+    private static void appendPathData(StringBuilder sb, ByteMatrix modules, int margin) {
+        int inputWidth = modules.getWidth();
+        byte[][] array = modules.getArray();
+        for (int y = 0; y < modules.getHeight(); y++) {
+            byte[] row = array[y];
+            int x = 0;
+            while (x < inputWidth) {
+                if (row[x] != 1) {
+                    x++;
+                    continue;
+                }
+                int end = x + 1;
+                while (end < inputWidth && row[end] == 1) {
+                    end++;
+                }
+                sb.append('M').append(x + margin).append(' ').append(y + margin)
+                        .append('h').append(end - x).append("v1h-").append(end - x).append('z');
+                x = end;
+            }
+        }
+    }
+
+    private static void appendFill(StringBuilder sb, int color) {
+        sb.append(" fill=\"#");
+        String hex = Integer.toHexString(color & 0xffffff);
+        for (int i = hex.length(); i < 6; i++) {
+            sb.append('0');
+        }
+        sb.append(hex).append('"');
+        int alpha = color >>> 24;
+        if (alpha != 0xff) {
+            sb.append(" fill-opacity=\"").append(alpha / 255f).append('"');
+        }
+    }
+
+    // 填充一行像素中的 [from, to)，超出宽度的部分丢弃
+    private static void fillSpan(int[] pixels, int rowStart, int from, int to, int width, int color) {
+        from = Math.min(from, width);
+        to = Math.min(to, width);
+        if (from < to) {
+            Arrays.fill(pixels, rowStart + from, rowStart + to, color);
+        }
+    }
+}
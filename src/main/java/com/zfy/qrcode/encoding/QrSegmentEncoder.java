@@ -0,0 +1,349 @@
+package com.zfy.qrcode.encoding;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.CharacterSetECI;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+import com.google.zxing.qrcode.encoder.QRCode;
+import com.google.zxing.qrcode.encoder.QRCodeAssembler;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分段编码：把内容拆成数字、字母数字、字节、汉字（Shift_JIS 双字节）几种模式的分段，使总位数最少，从而使用尽量小的版本。
+ * Encoder 对整个内容只用一种模式，例如 "HTTPS://EXAMPLE.COM/T/000123456789" 会全部使用字节模式，
+ * 分段后数字部分 3 个字符 10 bit、其余部分 2 个字符 11 bit，版本可以小一到两级。
+ * <p>
+ * 分段用的是各模式之间的最短路径：逐个字符计算以每种模式结尾的最少位数（以 1/6 bit 为单位，数字 3 个字符
+ * 10 bit、字母数字 2 个字符 11 bit 可以按整数计算），切换模式的代价是新分段的模式指示和字符数字段，
+ * 最后从最少的结尾倒推出每个字符的模式。字符数字段的长度按版本分为 1~9、10~26、27~40 三组，每组分别计算。
+ * 只依赖 zxing，不依赖 Android。
+ */
+public class QrSegmentEncoder {
+
+    private static final String ALPHANUMERIC_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    // 下标与 costs 数组对应
+    private static final Mode[] MODES = {Mode.BYTE, Mode.ALPHANUMERIC, Mode.NUMERIC, Mode.KANJI};
+    private static final int    MODE_BYTE         = 0;
+    private static final int    MODE_ALPHANUMERIC = 1;
+    private static final int    MODE_NUMERIC      = 2;
+    private static final int    MODE_KANJI        = 3;
+
+    // 每组版本的字符数字段长度相同
+    private static final int[][] VERSION_GROUPS = {{1, 9}, {10, 26}, {27, 40}};
+
+    private static final Charset UTF_8     = Charset.forName("UTF-8");
+    private static final Charset SHIFT_JIS = Charset.forName("Shift_JIS");
+
+    /**
+     * 一个分段
+     */
+    public static final class Segment {
+
+        public final Mode   mode;
+        public final String text;
+
+        Segment(Mode mode, String text) {
+            this.mode = mode;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return mode + ":" + text;
+        }
+    }
+
+    /**
+     * 分段编码，选择能容纳内容的最小版本
+     *
+     * @param content 内容
+     * @param level   容错级别
+     * @return 二维码，版本见 getVersion
+     */
+    public static QRCode encode(String content, ErrorCorrectionLevel level) throws WriterException {
+        if (content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("Found empty contents");
+        }
+        CodePoints codePoints = new CodePoints(content);
+        for (int[] group : VERSION_GROUPS) {
+            List<Segment> segments = segment(codePoints, Version.getVersionForNumber(group[0]));
+            int bits = countBits(segments, Version.getVersionForNumber(group[0]));
+            for (int number = group[0]; number <= group[1]; number++) {
+                Version version = Version.getVersionForNumber(number);
+                if (bits <= QRCodeAssembler.getNumDataBytes(version, level) * 8) {
+                    return QRCodeAssembler.assemble(toBits(segments, version), primaryMode(segments), level, version);
+                }
+            }
+        }
+        throw new WriterException("Data too big");
+    }
+
+    /**
+     * 按指定版本的字符数字段长度分段，相邻的同模式字符合并成一段
+     *
+     * @param content 内容
+     * @param version 版本
+     * @return 分段
+     */
+    public static List<Segment> segment(String content, Version version) {
+        return segment(new CodePoints(content), version);
+    }
+
+    private static List<Segment> segment(CodePoints codePoints, Version version) {
+        int[] modes = computeCharacterModes(codePoints, version);
+        List<Segment> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= modes.length; i++) {
+            if (i == modes.length || modes[i] != modes[start]) {
+                segments.add(new Segment(MODES[modes[start]], codePoints.substring(start, i)));
+                start = i;
+            }
+        }
+        return segments;
+    }
+
+    // 最短路径，返回每个字符使用的模式下标
+    private static int[] computeCharacterModes(CodePoints codePoints, Version version) {
+        int count = codePoints.length();
+        int numModes = MODES.length;
+        int[] headCosts = new int[numModes];
+        for (int i = 0; i < numModes; i++) {
+            headCosts[i] = (4 + MODES[i].getCharacterCountBits(version)) * 6;
+        }
+        // charModes[i][j]：第 i 个字符之后处于模式 j 时，第 i 个字符使用的模式，-1 表示不可达
+        int[][] charModes = new int[count][numModes];
+        int[] prevCosts = headCosts.clone();
+        int[] curCosts = new int[numModes];
+        for (int i = 0; i < count; i++) {
+            int c = codePoints.get(i);
+            int[] modes = charModes[i];
+            // 字节模式可以编码任何字符
+            curCosts[MODE_BYTE] = prevCosts[MODE_BYTE] + utf8Length(c) * 8 * 6;
+            modes[MODE_BYTE] = MODE_BYTE;
+            modes[MODE_ALPHANUMERIC] = -1;
+            modes[MODE_NUMERIC] = -1;
+            modes[MODE_KANJI] = -1;
+            if (c < 0x80 && ALPHANUMERIC_CHARS.indexOf(c) >= 0) {
+                curCosts[MODE_ALPHANUMERIC] = prevCosts[MODE_ALPHANUMERIC] + 33; // 5.5 bit
+                modes[MODE_ALPHANUMERIC] = MODE_ALPHANUMERIC;
+            }
+            if (c >= '0' && c <= '9') {
+                curCosts[MODE_NUMERIC] = prevCosts[MODE_NUMERIC] + 20; // 3.33 bit
+                modes[MODE_NUMERIC] = MODE_NUMERIC;
+            }
+            if (codePoints.kanjiAt(i) >= 0) {
+                curCosts[MODE_KANJI] = prevCosts[MODE_KANJI] + 78; // 13 bit
+                modes[MODE_KANJI] = MODE_KANJI;
+            }
+            // 在这个字符之后结束当前分段、开始新的分段
+            for (int to = 0; to < numModes; to++) {
+                for (int from = 0; from < numModes; from++) {
+                    if (modes[from] < 0) {
+                        continue;
+                    }
+                    // 分段结束时不足 1 bit 的部分向上取整
+                    int newCost = (curCosts[from] + 5) / 6 * 6 + headCosts[to];
+                    if (modes[to] < 0 || newCost < curCosts[to]) {
+                        curCosts[to] = newCost;
+                        modes[to] = from;
+                    }
+                }
+            }
+            int[] tmp = prevCosts;
+            prevCosts = curCosts;
+            curCosts = tmp;
+        }
+        // 最少位数的结尾模式
+        int mode = 0;
+        for (int i = 1; i < numModes; i++) {
+            if (charModes[count - 1][i] >= 0 && prevCosts[i] < prevCosts[mode]) {
+                mode = i;
+            }
+        }
+        // 从后往前倒推每个字符的模式
+        int[] result = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            mode = charModes[i][mode];
+            result[i] = mode;
+        }
+        return result;
+    }
+
+    private static int countBits(List<Segment> segments, Version version) {
+        int bits = needsEci(segments) ? 4 + 8 : 0;
+        for (Segment segment : segments) {
+            bits += 4 + segment.mode.getCharacterCountBits(version);
+            int length = characterCount(segment);
+            if (segment.mode == Mode.NUMERIC) {
+                bits += length / 3 * 10 + (length % 3 == 0 ? 0 : length % 3 == 1 ? 4 : 7);
+            } else if (segment.mode == Mode.ALPHANUMERIC) {
+                bits += length / 2 * 11 + (length % 2) * 6;
+            } else if (segment.mode == Mode.KANJI) {
+                bits += length * 13;
+            } else {
+                bits += length * 8;
+            }
+        }
+        return bits;
+    }
+
+    // 字符数字段的值：字节模式为字节数，其余为字符数
+    private static int characterCount(Segment segment) {
+        if (segment.mode == Mode.BYTE) {
+            return segment.text.getBytes(UTF_8).length;
+        }
+        return segment.text.codePointCount(0, segment.text.length());
+    }
+
+    // 字节模式中有非 ASCII 字符时，加 UTF-8 的 ECI，与原来 CHARACTER_SET 为 utf-8 时一致
+    private static boolean needsEci(List<Segment> segments) {
+        for (Segment segment : segments) {
+            if (segment.mode != Mode.BYTE) {
+                continue;
+            }
+            for (int i = 0; i < segment.text.length(); i++) {
+                if (segment.text.charAt(i) >= 0x80) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static BitArray toBits(List<Segment> segments, Version version) {
+        BitArray bits = new BitArray();
+        if (needsEci(segments)) {
+            bits.appendBits(Mode.ECI.getBits(), 4);
+            bits.appendBits(CharacterSetECI.UTF8.getValue(), 8);
+        }
+        for (Segment segment : segments) {
+            bits.appendBits(segment.mode.getBits(), 4);
+            bits.appendBits(characterCount(segment), segment.mode.getCharacterCountBits(version));
+            String text = segment.text;
+            if (segment.mode == Mode.NUMERIC) {
+                for (int i = 0; i < text.length(); i += 3) {
+                    int end = Math.min(i + 3, text.length());
+                    bits.appendBits(Integer.parseInt(text.substring(i, end)), (end - i) * 3 + 1);
+                }
+            } else if (segment.mode == Mode.ALPHANUMERIC) {
+                for (int i = 0; i < text.length(); i += 2) {
+                    int code = ALPHANUMERIC_CHARS.indexOf(text.charAt(i));
+                    if (i + 1 < text.length()) {
+                        bits.appendBits(code * 45 + ALPHANUMERIC_CHARS.indexOf(text.charAt(i + 1)), 11);
+                    } else {
+                        bits.appendBits(code, 6);
+                    }
+                }
+            } else if (segment.mode == Mode.KANJI) {
+                for (int i = 0; i < text.length(); i++) {
+                    bits.appendBits(kanjiCode(text.charAt(i)), 13);
+                }
+            } else {
+                for (byte b : text.getBytes(UTF_8)) {
+                    bits.appendBits(b & 0xff, 8);
+                }
+            }
+        }
+        return bits;
+    }
+
+    // 字符数最多的分段的模式
+    private static Mode primaryMode(List<Segment> segments) {
+        Segment primary = segments.get(0);
+        for (Segment segment : segments) {
+            if (segment.text.length() > primary.text.length()) {
+                primary = segment;
+            }
+        }
+        return primary.mode;
+    }
+
+    private static int utf8Length(int c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (c < 0x10000) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * 汉字模式的 13 bit 编码，不能用汉字模式编码时返回 -1。
+     * 只接受 Shift_JIS 双字节 0x8140~0x9FFC、0xE040~0xEBBF 范围内且能原样解码回来的字符
+     */
+    static int kanjiCode(char c) {
+        if (c < 0x80) {
+            return -1;
+        }
+        byte[] bytes = String.valueOf(c).getBytes(SHIFT_JIS);
+        if (bytes.length != 2) {
+            return -1;
+        }
+        int code = ((bytes[0] & 0xff) << 8) | (bytes[1] & 0xff);
+        int subtracted;
+        if (code >= 0x8140 && code <= 0x9ffc) {
+            subtracted = code - 0x8140;
+        } else if (code >= 0xe040 && code <= 0xebbf) {
+            subtracted = code - 0xc140;
+        } else {
+            return -1;
+        }
+        // 映射不可逆的字符（例如波浪线）不用汉字模式
+        if (!String.valueOf(c).equals(new String(bytes, SHIFT_JIS))) {
+            return -1;
+        }
+        return (subtracted >> 8) * 0xc0 + (subtracted & 0xff);
+    }
+
+    /**
+     * 按码点访问内容，并预先计算每个字符的汉字编码
+     */
+    private static final class CodePoints {
+
+        private final String mContent;
+        private final int[]  mCodePoints;
+        private final int[]  mOffsets; // 每个码点在原字符串中的位置，多一个结尾
+        private final int[]  mKanji;
+
+        CodePoints(String content) {
+            mContent = content;
+            int count = content.codePointCount(0, content.length());
+            mCodePoints = new int[count];
+            mOffsets = new int[count + 1];
+            mKanji = new int[count];
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int c = content.codePointAt(offset);
+                mCodePoints[i] = c;
+                mOffsets[i] = offset;
+                mKanji[i] = c < 0x10000 ? kanjiCode((char) c) : -1;
+                offset += Character.charCount(c);
+            }
+            mOffsets[count] = offset;
+        }
+
+        int length() {
+            return mCodePoints.length;
+        }
+
+        int get(int index) {
+            return mCodePoints[index];
+        }
+
+        int kanjiAt(int index) {
+            return mKanji[index];
+        }
+
+        String substring(int start, int end) {
+            return mContent.substring(mOffsets[start], mOffsets[end]);
+        }
+    }
+}
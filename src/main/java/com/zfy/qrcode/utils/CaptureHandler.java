@@ -21,9 +21,10 @@ import android.os.Handler;
 import android.os.Message;
 
 import com.google.zxing.Result;
+import com.zfy.qrcode.QrCode;
 import com.zfy.qrcode.R;
 import com.zfy.qrcode.camera.CameraManager;
-import com.zfy.qrcode.decode.DecodeThread;
+import com.zfy.qrcode.decode.DecodeDispatcher;
 
 /**
  * This class handles all the messaging which comprises the mState machine for
@@ -33,20 +34,27 @@ import com.zfy.qrcode.decode.DecodeThread;
  */
 public class CaptureHandler extends Handler {
 
-    private final DecodeThread  mDecodeThread;
-    private final CameraManager mCameraManager;
-    private       State         mState;
+    private final DecodeDispatcher mDecodeDispatcher;
+    private final CameraManager    mCameraManager;
+    private       State            mState;
 
     private CaptureUIManager mCaptureUIManager;
 
     public CaptureHandler(CaptureUIManager manager, CameraManager cameraManager, int decodeMode) {
+        this(manager, cameraManager, new DecodeDispatcher(manager, decodeMode, QrCode.QR_DECODE_WORKER_COUNT));
+    }
+
+    /**
+     * @param decodeDispatcher 提前创建好的解码调度器，解码线程可以和相机并行初始化
+     */
+    public CaptureHandler(CaptureUIManager manager, CameraManager cameraManager, DecodeDispatcher decodeDispatcher) {
         mCaptureUIManager = manager;
-        mDecodeThread = new DecodeThread(mCaptureUIManager, decodeMode);
-        mDecodeThread.start();
+        mDecodeDispatcher = decodeDispatcher;
         mState = State.SUCCESS;
 
         // Start ourselves capturing previews and decoding.
         mCameraManager = cameraManager;
+        cameraManager.setPreviewBufferCount(decodeDispatcher.getMaxHeldFrames());
         cameraManager.startPreview();
         restartPreviewAndDecode();
     }
@@ -62,29 +70,23 @@ public class CaptureHandler extends Handler {
 //            postDelayed(new Runnable() {
 //                @Override
 //                public void run() {
-//                    mCameraManager.requestPreviewFrame(mDecodeThread.getHandler(), R.id.decode);
+//                    mCameraManager.requestPreviewFrame(mDecodeDispatcher, R.id.decode);
 //                }
 //            }, 2000);
         } else if (message.what == R.id.decode_failed) {// We're decoding as fast as possible, so when one
             // decode fails,
             // start another.
             mState = State.PREVIEW;
-            mCameraManager.requestPreviewFrame(mDecodeThread.getHandler(), R.id.decode);
+            mCameraManager.requestPreviewFrame(mDecodeDispatcher, R.id.decode);
         }
     }
 
     public void quitSynchronously() {
         mState = State.DONE;
         mCameraManager.stopPreview();
-        Message quit = Message.obtain(mDecodeThread.getHandler(), R.id.quit);
-        quit.sendToTarget();
-        try {
-            // Wait at most half a second; should be enough time, and onPause()
-            // will timeout quickly
-            mDecodeThread.join(500L);
-        } catch (InterruptedException e) {
-            // continue
-        }
+        // Wait at most half a second; should be enough time, and onPause()
+        // will timeout quickly
+        mDecodeDispatcher.quit(500L);
 
         // Be absolutely sure we don't send any queued up messages
         removeMessages(R.id.decode_succeeded);
@@ -94,7 +96,10 @@ public class CaptureHandler extends Handler {
     private void restartPreviewAndDecode() {
         if (mState == State.SUCCESS) {
             mState = State.PREVIEW;
-            mCameraManager.requestPreviewFrame(mDecodeThread.getHandler(), R.id.decode);
+            mDecodeDispatcher.reset();
+            // 上一个码很密时预览尺寸可能已经提高，下一个码重新从最小的尺寸开始；尺寸变化会重启预览，所以在要帧之前
+            mCameraManager.setPreviewSizeLevel(0);
+            mCameraManager.requestPreviewFrame(mDecodeDispatcher, R.id.decode);
         }
     }
 
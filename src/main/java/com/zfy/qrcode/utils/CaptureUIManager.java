@@ -6,6 +6,10 @@ import android.arch.lifecycle.LifecycleObserver;
 import android.arch.lifecycle.OnLifecycleEvent;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -16,6 +20,8 @@ import com.google.zxing.Result;
 import com.zfy.qrcode.QrCode;
 import com.zfy.qrcode.R;
 import com.zfy.qrcode.camera.CameraManager;
+import com.zfy.qrcode.decode.DecodeDispatcher;
+import com.zfy.qrcode.decode.DecodeMetrics;
 import com.zfy.qrcode.decode.DecodeThread;
 
 import java.io.IOException;
@@ -24,6 +30,8 @@ import java.lang.reflect.Field;
 /**
  * CreateAt : 2017.08.17
  * Describe : 为扫描页面提供管理类，使扫描页面只关注UI绘制，逻辑在这里处理
+ * 启动时打开相机（后台相机线程）、创建 Surface、初始化解码线程三件事并行，都就绪后在主线程开始预览，
+ * 各阶段耗时见 {@link #getStartupMetrics()}。
  *
  * @author march
  */
@@ -44,7 +52,7 @@ public class CaptureUIManager implements LifecycleObserver {
     }
 
 
-    private CameraManager          mCameraManager; // Camera 管理
+    private volatile CameraManager mCameraManager; // Camera 管理，解码线程也会读取
     private CaptureHandler         mCaptureHandler; // 视频流处理
     private InactivityTimer        mInactivityTimer; // 电量
     private BeepManager            mBeepManager; // 扫描到后的效果
@@ -57,6 +65,17 @@ public class CaptureUIManager implements LifecycleObserver {
     //
     private ICaptureView           mOnUIHandler; // 处理结果
     private boolean                mIsHasSurface;
+    private final DecodeMetrics    mDecodeMetrics = new DecodeMetrics(); // 解码耗时统计
+    private final StartupMetrics   mStartupMetrics = new StartupMetrics(); // 启动耗时统计
+    private StartupMetrics.Listener mStartupListener; // 启动完成回调
+    // 启动
+    private final Handler          mMainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread          mCameraThread; // 打开、关闭相机，legacy 相机的回调也在这个线程
+    private Handler                mCameraHandler;
+    private HandlerThread          mClosingCameraThread; // 上一次 onPause 还在关闭相机的线程
+    private int                    mOpenGeneration; // 每次 onResume/onPause 加一，过期的打开结果直接丢弃
+    private boolean                mIsCameraOpened;
+    private DecodeDispatcher       mDecodeDispatcher; // onResume 时创建，和相机并行初始化
 
 
     public CaptureUIManager(Activity activity, SurfaceView surfaceView, ICaptureView onUIHandler) {
@@ -68,6 +87,15 @@ public class CaptureUIManager implements LifecycleObserver {
         mBeepManager = new BeepManager(activity);
         mSurfaceView = surfaceView;
         mOnUIHandler = onUIHandler;
+        mStartupMetrics.setListener(new StartupMetrics.Listener() {
+            @Override
+            public void onStartupFinished(StartupMetrics metrics) {
+                Log.i(TAG, metrics.toString());
+                if (mStartupListener != null) {
+                    mStartupListener.onStartupFinished(metrics);
+                }
+            }
+        });
 
         mCallback = new SurfaceHolder.Callback() {
             @Override
@@ -77,7 +105,8 @@ public class CaptureUIManager implements LifecycleObserver {
                 }
                 if (!mIsHasSurface) {
                     mIsHasSurface = true;
-                    initCamera(holder);
+                    mStartupMetrics.record(StartupMetrics.Phase.SURFACE, mStartupMetrics.getBeginNanos());
+                    startPreviewIfReady();
                 }
             }
 
@@ -113,6 +142,27 @@ public class CaptureUIManager implements LifecycleObserver {
         return mCameraManager;
     }
 
+    /**
+     * 解码流水线的统计数据，在页面的整个生命周期内累计，需要时调用 reset 清空
+     */
+    public DecodeMetrics getDecodeMetrics() {
+        return mDecodeMetrics;
+    }
+
+    /**
+     * 最近一次 onResume 之后各启动阶段的耗时
+     */
+    public StartupMetrics getStartupMetrics() {
+        return mStartupMetrics;
+    }
+
+    /**
+     * 每次启动完成（第一帧送去解码）时回调，在主线程
+     */
+    public void setOnStartupListener(StartupMetrics.Listener listener) {
+        mStartupListener = listener;
+    }
+
     public void restartPreviewAfterDelay(long delayMS) {
         if (mCaptureHandler != null) {
             mCaptureHandler.sendEmptyMessageDelayed(R.id.restart_preview, delayMS);
@@ -144,15 +194,30 @@ public class CaptureUIManager implements LifecycleObserver {
         // first launch. That led to bugs where the scanning rectangle was the
         // wrong size and partially
         // off screen.
+        mStartupMetrics.begin();
         mCameraManager = new CameraManager(mActivity);
+        final CameraManager cameraManager = mCameraManager;
+        // 相机打开后断开或出错；pause 之后才到的消息属于已经关闭的相机，直接忽略
+        mCameraManager.setErrorHandler(new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == R.id.camera_error && cameraManager == mCameraManager) {
+                    onCameraLost(msg.arg1);
+                }
+            }
+        }, R.id.camera_error);
 
         mCaptureHandler = null;
+        mIsCameraOpened = false;
+        openCamera();
+        mDecodeDispatcher = new DecodeDispatcher(this, DecodeThread.ALL_MODE, QrCode.QR_DECODE_WORKER_COUNT);
 
         if (mIsHasSurface) {
             // The activity was paused but not stopped, so the surface still
             // exists. Therefore
             // surfaceCreated() won't be called, so init the camera here.
-            initCamera(mSurfaceView.getHolder());
+            mStartupMetrics.record(StartupMetrics.Phase.SURFACE, mStartupMetrics.getBeginNanos());
+            startPreviewIfReady();
         } else {
             // Install the callback and wait for surfaceCreated() to init the
             // camera.
@@ -163,13 +228,19 @@ public class CaptureUIManager implements LifecycleObserver {
 
 
     public void onPause() {
+        mOpenGeneration++;
+        mIsCameraOpened = false;
         if (mCaptureHandler != null) {
+            // 同时停止解码调度器
             mCaptureHandler.quitSynchronously();
             mCaptureHandler = null;
+        } else if (mDecodeDispatcher != null) {
+            mDecodeDispatcher.quit(500L);
         }
+        mDecodeDispatcher = null;
         mInactivityTimer.onPause();
         mBeepManager.close();
-        mCameraManager.closeDriver();
+        closeCamera();
         if (!mIsHasSurface) {
             mSurfaceView.getHolder().removeCallback(mCallback);
         }
@@ -190,21 +261,82 @@ public class CaptureUIManager implements LifecycleObserver {
     }
 
 
-    private void initCamera(SurfaceHolder surfaceHolder) {
-        if (surfaceHolder == null) {
-            throw new IllegalStateException("No SurfaceHolder provided");
+    /**
+     * 在新的相机线程上打开相机，不阻塞主线程；上一次的相机线程要先把相机释放掉
+     */
+    private void openCamera() {
+        final CameraManager cameraManager = mCameraManager;
+        final int generation = ++mOpenGeneration;
+        final HandlerThread closingThread = mClosingCameraThread;
+        mClosingCameraThread = null;
+        mCameraThread = new HandlerThread("CameraThread");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (closingThread != null) {
+                    try {
+                        closingThread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                long start = StartupMetrics.now();
+                boolean opened = false;
+                try {
+                    cameraManager.openDriver();
+                    opened = true;
+                    mStartupMetrics.record(StartupMetrics.Phase.CAMERA_OPEN, start);
+                } catch (IOException ioe) {
+                    Log.w(TAG, ioe);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Unexpected error initializing camera", e);
+                }
+                final boolean success = opened;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCameraOpened(generation, success);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onCameraOpened(int generation, boolean success) {
+        if (generation != mOpenGeneration) {
+            // 打开期间页面已经 pause，相机由 closeCamera 关闭
+            return;
+        }
+        // 打开之后、回到主线程之前相机可能已经断开
+        if (!success || !mCameraManager.isOpen()) {
+            mOnUIHandler.onError();
+            return;
         }
-        if (mCameraManager.isOpen()) {
-            Log.w(TAG, "initCamera() while already open -- late SurfaceView callback?");
+        mIsCameraOpened = true;
+        startPreviewIfReady();
+    }
+
+    /**
+     * 相机打开、Surface 创建之后才能开始预览，两者谁后完成谁调用这里
+     */
+    private void startPreviewIfReady() {
+        if (!mIsCameraOpened || !mIsHasSurface || mCaptureHandler != null) {
             return;
         }
+        SurfaceHolder surfaceHolder = mSurfaceView.getHolder();
+        if (surfaceHolder == null) {
+            throw new IllegalStateException("No SurfaceHolder provided");
+        }
+        long start = StartupMetrics.now();
         try {
-            mCameraManager.openDriver(surfaceHolder);
+            // SurfaceHolder 只能在主线程操作
+            mCameraManager.setPreviewDisplay(surfaceHolder);
             // Creating the mCaptureHandler starts the preview, which can also throw a
             // RuntimeException.
-            if (mCaptureHandler == null) {
-                mCaptureHandler = new CaptureHandler(this, mCameraManager, DecodeThread.ALL_MODE);
-            }
+            mCaptureHandler = new CaptureHandler(this, mCameraManager, mDecodeDispatcher);
+            mStartupMetrics.record(StartupMetrics.Phase.PREVIEW_START, start);
             if (QrCode.QR_DECODE_CAPTURE_BY_ZBAR) {
                 mCropRect = mOnUIHandler.getCropFrameRect();
             }
@@ -216,11 +348,52 @@ public class CaptureUIManager implements LifecycleObserver {
         }
     }
 
+    /**
+     * 相机在使用中断开或出错（被其他应用占用、相机服务重启等），预览已经停止：停止解码，关闭相机，通知页面
+     */
+    private void onCameraLost(int error) {
+        Log.w(TAG, "camera lost, error " + error);
+        if (!mIsCameraOpened) {
+            // 还没有开始预览，onCameraOpened 会发现相机已经关闭
+            return;
+        }
+        mIsCameraOpened = false;
+        if (mCaptureHandler != null) {
+            mCaptureHandler.quitSynchronously();
+            mCaptureHandler = null;
+        } else if (mDecodeDispatcher != null) {
+            mDecodeDispatcher.quit(500L);
+        }
+        mDecodeDispatcher = null;
+        closeCamera();
+        mOnUIHandler.onError();
+    }
+
+    /**
+     * 在相机线程上关闭相机，排在还没完成的打开之后；线程处理完就退出，下一次打开会等它结束
+     */
+    private void closeCamera() {
+        if (mCameraHandler == null) {
+            return;
+        }
+        final CameraManager cameraManager = mCameraManager;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                cameraManager.closeDriver();
+                Looper.myLooper().quit();
+            }
+        });
+        mClosingCameraThread = mCameraThread;
+        mCameraThread = null;
+        mCameraHandler = null;
+    }
+
 
     @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
     public void onOwnerResume() {
+        // 预览和解码在相机打开、Surface 就绪后由 startPreviewIfReady 开始
         onResume();
-        restartPreviewAfterDelay(0);
     }
 
     @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
@@ -0,0 +1,169 @@
+package com.zfy.qrcode.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 大内容压缩：UTF-8 → deflate（zlib 格式，带 adler32 校验）→ base45，前面加 "QZ1:" 头。
+ * base45 的字符集正好是二维码字母数字模式的 45 个字符，2 字节变 3 个字符共 16.5 bit，几乎没有膨胀，
+ * 头也是字母数字，整个内容可以用字母数字模式编码。几 KB 的 JSON 压缩后版本可以小好几级。
+ * 解码时识别到头就解压，头不对或者解压失败时原样返回，普通内容不受影响。
+ * 纯 Java 实现，不依赖 Android。
+ */
+public class PayloadCodec {
+
+    public static final String HEADER = "QZ1:";
+
+    private static final String BASE45 = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    private static final int     MAX_INFLATED_BYTES = 1024 * 1024; // 解压上限，防止异常数据占满内存
+    private static final Charset UTF_8              = Charset.forName("UTF-8");
+
+    /**
+     * 压缩后比原内容编码位数少时才压缩
+     *
+     * @param content 内容
+     * @return 压缩后带头的内容，或者原内容
+     */
+    public static String encodeIfSmaller(String content) {
+        if (content == null || content.isEmpty()) {
+            return content;
+        }
+        String encoded = encode(content);
+        // 字母数字模式 2 个字符 11 bit，与原内容单一模式编码的位数比较
+        return encoded.length() * 11 < estimateBits(content) * 2 ? encoded : content;
+    }
+
+    /**
+     * @param content 内容
+     * @return "QZ1:" + base45(deflate(UTF-8))
+     */
+    public static String encode(String content) {
+        byte[] input = content.getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+        return HEADER + toBase45(out.toByteArray());
+    }
+
+    /**
+     * 识别到头时解压，否则原样返回
+     *
+     * @param text 扫描结果
+     * @return 原内容
+     */
+    public static String decode(String text) {
+        if (text == null || !text.startsWith(HEADER)) {
+            return text;
+        }
+        byte[] compressed = fromBase45(text, HEADER.length());
+        if (compressed == null) {
+            return text;
+        }
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+        try {
+            inflater.setInput(compressed);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // 数据不完整
+                    return text;
+                }
+                out.write(buffer, 0, count);
+                if (out.size() > MAX_INFLATED_BYTES) {
+                    return text;
+                }
+            }
+        } catch (DataFormatException e) {
+            return text;
+        } finally {
+            inflater.end();
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    // 原内容用单一模式编码时的大约位数
+    private static int estimateBits(String content) {
+        boolean numeric = true;
+        boolean alphanumeric = true;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c < '0' || c > '9') {
+                numeric = false;
+            }
+            if (c >= 0x80 || BASE45.indexOf(c) < 0) {
+                alphanumeric = false;
+                break;
+            }
+        }
+        if (numeric) {
+            return (content.length() * 10 + 2) / 3;
+        } else if (alphanumeric) {
+            return (content.length() * 11 + 1) / 2;
+        }
+        return content.getBytes(UTF_8).length * 8;
+    }
+
+    // RFC 9285：每 2 字节按 256 进制转成 3 个 45 进制字符，低位在前；最后单个字节转成 2 个字符
+    static String toBase45(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length + 1) / 2 * 3);
+        int i = 0;
+        for (; i + 1 < data.length; i += 2) {
+            int n = ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+            sb.append(BASE45.charAt(n % 45)).append(BASE45.charAt(n / 45 % 45)).append(BASE45.charAt(n / 2025));
+        }
+        if (i < data.length) {
+            int n = data[i] & 0xff;
+            sb.append(BASE45.charAt(n % 45)).append(BASE45.charAt(n / 45));
+        }
+        return sb.toString();
+    }
+
+    // 非法字符或长度返回 null
+    static byte[] fromBase45(String text, int offset) {
+        int length = text.length() - offset;
+        if (length % 3 == 1) {
+            return null;
+        }
+        byte[] data = new byte[length / 3 * 2 + (length % 3 == 2 ? 1 : 0)];
+        int out = 0;
+        for (int i = offset; i < text.length(); i += 3) {
+            int c = BASE45.indexOf(text.charAt(i));
+            int d = BASE45.indexOf(text.charAt(i + 1));
+            if (c < 0 || d < 0) {
+                return null;
+            }
+            if (i + 2 < text.length()) {
+                int e = BASE45.indexOf(text.charAt(i + 2));
+                int n = c + d * 45 + e * 2025;
+                if (e < 0 || n > 0xffff) {
+                    return null;
+                }
+                data[out++] = (byte) (n >> 8);
+                data[out++] = (byte) n;
+            } else {
+                int n = c + d * 45;
+                if (n > 0xff) {
+                    return null;
+                }
+                data[out++] = (byte) n;
+            }
+        }
+        return data;
+    }
+}
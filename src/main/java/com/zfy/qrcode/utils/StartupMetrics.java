@@ -0,0 +1,124 @@
+package com.zfy.qrcode.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 扫描页面启动各阶段的耗时。
+ * 打开相机、等待 Surface、启动解码线程这几个阶段是并行的，所以同时记录每个阶段自身的耗时，
+ * 和从 onResume 开始到这个阶段结束经过的时间；后者最大的那个阶段就是启动的瓶颈。
+ * 每次 onResume 重新开始统计，每个阶段只记录第一次，可以在任意线程记录。
+ */
+public class StartupMetrics {
+
+    /**
+     * 启动完成回调，在主线程
+     */
+    public interface Listener {
+
+        /**
+         * 第一帧交给解码调度器时回调
+         */
+        void onStartupFinished(StartupMetrics metrics);
+    }
+
+    /**
+     * 启动阶段
+     */
+    public enum Phase {
+        CAMERA_OPEN, // 后台线程打开相机、读取并设置参数
+        SURFACE, // 等待预览 Surface 创建
+        DECODE_WORKERS, // 解码线程全部就绪
+        PREVIEW_START, // 设置预览 Surface、开始预览
+        FIRST_FRAME // 从开始到第一帧交给解码调度器
+    }
+
+    private static final int PHASE_COUNT = Phase.values().length;
+
+    private final AtomicLongArray mDurations = new AtomicLongArray(PHASE_COUNT); // 纳秒，-1 表示还没有记录
+    private final AtomicLongArray mElapsed   = new AtomicLongArray(PHASE_COUNT);
+    private volatile long         mBeginNanos;
+    private volatile Listener     mListener;
+
+    public StartupMetrics() {
+        begin();
+    }
+
+    /**
+     * @return 计时起点，配合 {@link #record(Phase, long)} 使用
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 清空并重新开始统计
+     */
+    public void begin() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mDurations.set(i, -1);
+            mElapsed.set(i, -1);
+        }
+        mBeginNanos = now();
+    }
+
+    /**
+     * @return {@link #begin()} 的时间，按 {@link #now()} 计
+     */
+    public long getBeginNanos() {
+        return mBeginNanos;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 记录一个阶段的耗时，同一个阶段只记录第一次
+     *
+     * @param phase     阶段
+     * @param startNano {@link #now()} 得到的阶段起点
+     */
+    public void record(Phase phase, long startNano) {
+        long end = now();
+        int index = phase.ordinal();
+        if (!mDurations.compareAndSet(index, -1, Math.max(0, end - startNano))) {
+            return;
+        }
+        mElapsed.set(index, Math.max(0, end - mBeginNanos));
+        Listener listener = mListener;
+        if (phase == Phase.FIRST_FRAME && listener != null) {
+            listener.onStartupFinished(this);
+        }
+    }
+
+    /**
+     * @return 阶段自身的耗时，毫秒，还没有记录时返回 -1
+     */
+    public long getDurationMillis(Phase phase) {
+        long nanos = mDurations.get(phase.ordinal());
+        return nanos < 0 ? -1 : nanos / 1000000;
+    }
+
+    /**
+     * @return 从开始到阶段结束经过的时间，毫秒，还没有记录时返回 -1
+     */
+    public long getElapsedMillis(Phase phase) {
+        long nanos = mElapsed.get(phase.ordinal());
+        return nanos < 0 ? -1 : nanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("startup");
+        for (Phase phase : Phase.values()) {
+            if (getDurationMillis(phase) < 0) {
+                continue;
+            }
+            sb.append(' ').append(phase.name().toLowerCase())
+                    .append("[took=").append(getDurationMillis(phase))
+                    .append("ms at=").append(getElapsedMillis(phase))
+                    .append("ms]");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.zfy.qrcode.utils;
+
+/**
+ * YUV 相关的纯 Java 转换，不依赖 Android，可以在 JVM 上做基准测试。
+ */
+public class YuvUtils {
+
+    private static final int RB_WEIGHTS = (25 << 16) | 66;
+
+    /**
+     * ARGB 只转出亮度（Y），zxing 的 PlanarYUVLuminanceSource 只读 Y 平面，U、V 不需要计算。
+     * R 和 B 打包在一个 int 里用一次乘法同时算出 66 * R + 25 * B，每个像素只需要两次乘法。
+     *
+     * @param argb      ARGB 像素
+     * @param luminance 输出的亮度，长度至少为 count
+     * @param count     像素个数
+     */
+    public static void argbToLuminance(int[] argb, byte[] luminance, int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = argb[i];
+            // (R << 16 | B) * (25 << 16 | 66) 的 16 ~ 31 位就是 66 * R + 25 * B，其余的积溢出或在低位
+            int rb = ((pixel & 0xff00ff) * RB_WEIGHTS) >>> 16;
+            int g = (pixel >> 8) & 0xff;
+            luminance[i] = (byte) (((rb + 129 * g + 128) >> 8) + 16);
+        }
+    }
+
+    /**
+     * RGB_565 直接转亮度，省去转换成 ARGB 的步骤
+     *
+     * @param rgb565    RGB_565 像素，Bitmap.copyPixelsToBuffer 得到的数据
+     * @param luminance 输出的亮度，长度至少为 count
+     * @param count     像素个数
+     */
+    public static void rgb565ToLuminance(short[] rgb565, byte[] luminance, int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = rgb565[i];
+            // 5 位和 6 位扩展到 8 位，高位复制到低位
+            int r = (pixel >> 8) & 0xf8;
+            r |= r >> 5;
+            int g = (pixel >> 3) & 0xfc;
+            g |= g >> 6;
+            int b = (pixel << 3) & 0xf8;
+            b |= b >> 5;
+            luminance[i] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+        }
+    }
+
+    /**
+     * RGB转YUV420sp
+     *
+     * @param yuv420sp inputWidth * inputHeight * 3 / 2
+     * @param argb     inputWidth * inputHeight
+     * @param width    image width
+     * @param height   image height
+     */
+    public static void encodeYUV420SP(byte[] yuv420sp, int[] argb, int width, int height) {
+        // 帧图片的像素大小
+        final int frameSize = width * height;
+        // ---YUV数据---
+        int Y, U, V;
+        // Y的index从0开始
+        int yIndex = 0;
+        // UV的index从frameSize开始
+        int uvIndex = frameSize;
+        // ---颜色数据---
+        int R, G, B;
+        int rgbIndex = 0;
+        // ---循环所有像素点，RGB转YUV---
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                R = (argb[rgbIndex] & 0xff0000) >> 16;
+                G = (argb[rgbIndex] & 0xff00) >> 8;
+                B = (argb[rgbIndex] & 0xff);
+                //
+                rgbIndex++;
+                // well known RGB to YUV algorithm
+                Y = ((66 * R + 129 * G + 25 * B + 128) >> 8) + 16;
+                U = ((-38 * R - 74 * G + 112 * B + 128) >> 8) + 128;
+                V = ((112 * R - 94 * G - 18 * B + 128) >> 8) + 128;
+                Y = Math.max(0, Math.min(Y, 255));
+                U = Math.max(0, Math.min(U, 255));
+                V = Math.max(0, Math.min(V, 255));
+                // NV21 has a plane of Y and interleaved planes of VU each sampled by a factor of 2
+                // meaning for every 4 Y pixels there are 1 V and 1 U. Note the sampling is every other
+                // pixel AND every other scan line.
+                // ---Y---
+                yuv420sp[yIndex++] = (byte) Y;
+                // ---UV---
+                if ((j % 2 == 0) && (i % 2 == 0)) {
+                    //
+                    yuv420sp[uvIndex++] = (byte) V;
+                    //
+                    yuv420sp[uvIndex++] = (byte) U;
+                }
+            }
+        }
+    }
+}
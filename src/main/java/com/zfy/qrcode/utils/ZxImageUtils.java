@@ -3,7 +3,7 @@ package com.zfy.qrcode.utils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
-import java.util.Arrays;
+import java.nio.ShortBuffer;
 
 /**
  * CreateAt : 8/8/17
@@ -13,7 +13,19 @@ import java.util.Arrays;
  */
 public class ZxImageUtils {
 
-    private static byte[] yuvs;
+    // 每个线程各自复用的转换缓冲，多个线程同时解码相册图片时互不影响
+    private static final ThreadLocal<ConvertBuffers> sConvertBuffers = new ThreadLocal<ConvertBuffers>() {
+        @Override
+        protected ConvertBuffers initialValue() {
+            return new ConvertBuffers();
+        }
+    };
+
+    private static class ConvertBuffers {
+        int[]   argb      = new int[0];
+        short[] rgb565    = new short[0];
+        byte[]  luminance = new byte[0];
+    }
 
 
     public static void recyclerBitmaps(Bitmap... bitmaps) {
@@ -36,7 +48,7 @@ public class ZxImageUtils {
      * @param reqHeight 需要压缩到的高度
      * @return 压缩比
      */
-    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+    public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
         // Raw height and width of image
         final int height = options.outHeight;
         final int width = options.outWidth;
@@ -62,8 +74,21 @@ public class ZxImageUtils {
      * @return Bitmap
      */
     public static Bitmap decodeSampledBitmapFromFile(String imgPath, int reqWidth, int reqHeight) {
+        return decodeSampledBitmapFromFile(imgPath, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * 同 {@link #decodeSampledBitmapFromFile(String, int, int)}，可以指定 Bitmap 格式
+     *
+     * @param config Bitmap 格式，为 null 时使用默认的 ARGB_8888
+     */
+    public static Bitmap decodeSampledBitmapFromFile(String imgPath, int reqWidth, int reqHeight, Bitmap.Config config) {
         // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (config != null) {
+            // 不指定时保持 Options 的默认值 ARGB_8888
+            options.inPreferredConfig = config;
+        }
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(imgPath, options);
         // Calculate inSampleSize
@@ -74,6 +99,38 @@ public class ZxImageUtils {
     }
 
 
+    /**
+     * 取出 Bitmap 的亮度数据，可以直接交给 PlanarYUVLuminanceSource（dataWidth、dataHeight 为 Bitmap 的宽高）。
+     * RGB_565 的 Bitmap 直接从原始像素计算，不经过 ARGB。
+     * 返回的数组属于当前线程，长度可能大于 宽 * 高，下次在同一线程调用时会被覆盖，不要持有。
+     *
+     * @param bitmap bmp，不会被回收
+     * @return 亮度数组
+     */
+    public static byte[] getLuminance(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int count = width * height;
+        ConvertBuffers buffers = sConvertBuffers.get();
+        if (buffers.luminance.length < count) {
+            buffers.luminance = new byte[count];
+        }
+        if (bitmap.getConfig() == Bitmap.Config.RGB_565) {
+            if (buffers.rgb565.length < count) {
+                buffers.rgb565 = new short[count];
+            }
+            bitmap.copyPixelsToBuffer(ShortBuffer.wrap(buffers.rgb565, 0, count));
+            YuvUtils.rgb565ToLuminance(buffers.rgb565, buffers.luminance, count);
+        } else {
+            if (buffers.argb.length < count) {
+                buffers.argb = new int[count];
+            }
+            bitmap.getPixels(buffers.argb, 0, width, 0, 0, width, height);
+            YuvUtils.argbToLuminance(buffers.argb, buffers.luminance, count);
+        }
+        return buffers.luminance;
+    }
+
     /**
      * 根据Bitmap的ARGB值生成YUV420SP数据。
      *
@@ -81,7 +138,9 @@ public class ZxImageUtils {
      * @param inputHeight image height
      * @param scaled      bmp
      * @return YUV420SP数组
+     * @deprecated zxing 只用到亮度，使用 {@link #getLuminance(Bitmap)}
      */
+    @Deprecated
     public static byte[] getYUV420sp(int inputWidth, int inputHeight, Bitmap scaled) {
 
         int[] argb = new int[inputWidth * inputHeight];
@@ -89,65 +148,10 @@ public class ZxImageUtils {
         //需要转换成偶数的像素点，否则编码YUV420的时候有可能导致分配的空间大小不够而溢出。
         int requiredWidth = inputWidth % 2 == 0 ? inputWidth : inputWidth + 1;
         int requiredHeight = inputHeight % 2 == 0 ? inputHeight : inputHeight + 1;
-        int byteLength = requiredWidth * requiredHeight * 3 / 2;
-        if (yuvs == null || yuvs.length < byteLength) {
-            yuvs = new byte[byteLength];
-        } else {
-            Arrays.fill(yuvs, (byte) 0);
-        }
-        encodeYUV420SP(yuvs, argb, inputWidth, inputHeight);
+        // 每次分配新的数组，共享的静态缓冲在多个线程同时调用时会互相覆盖
+        byte[] yuvs = new byte[requiredWidth * requiredHeight * 3 / 2];
+        YuvUtils.encodeYUV420SP(yuvs, argb, inputWidth, inputHeight);
         scaled.recycle();
         return yuvs;
     }
-
-    /**
-     * RGB转YUV420sp
-     *
-     * @param yuv420sp inputWidth * inputHeight * 3 / 2
-     * @param argb     inputWidth * inputHeight
-     * @param width    image width
-     * @param height   image height
-     */
-    private static void encodeYUV420SP(byte[] yuv420sp, int[] argb, int width, int height) {
-        // 帧图片的像素大小
-        final int frameSize = width * height;
-        // ---YUV数据---
-        int Y, U, V;
-        // Y的index从0开始
-        int yIndex = 0;
-        // UV的index从frameSize开始
-        int uvIndex = frameSize;
-        // ---颜色数据---
-        int R, G, B;
-        int rgbIndex = 0;
-        // ---循环所有像素点，RGB转YUV---
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                R = (argb[rgbIndex] & 0xff0000) >> 16;
-                G = (argb[rgbIndex] & 0xff00) >> 8;
-                B = (argb[rgbIndex] & 0xff);
-                //
-                rgbIndex++;
-                // well known RGB to YUV algorithm
-                Y = ((66 * R + 129 * G + 25 * B + 128) >> 8) + 16;
-                U = ((-38 * R - 74 * G + 112 * B + 128) >> 8) + 128;
-                V = ((112 * R - 94 * G - 18 * B + 128) >> 8) + 128;
-                Y = Math.max(0, Math.min(Y, 255));
-                U = Math.max(0, Math.min(U, 255));
-                V = Math.max(0, Math.min(V, 255));
-                // NV21 has a plane of Y and interleaved planes of VU each sampled by a factor of 2
-                // meaning for every 4 Y pixels there are 1 V and 1 U. Note the sampling is every other
-                // pixel AND every other scan line.
-                // ---Y---
-                yuv420sp[yIndex++] = (byte) Y;
-                // ---UV---
-                if ((j % 2 == 0) && (i % 2 == 0)) {
-                    //
-                    yuv420sp[uvIndex++] = (byte) V;
-                    //
-                    yuv420sp[uvIndex++] = (byte) U;
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,146 @@
+package com.zfy.qrcode.camera;
+
+import android.content.Context;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraMetadata;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowCameraCharacteristics;
+import org.robolectric.shadows.ShadowCameraManager;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Opening the device, handing a frame to the decoder and losing the device, against Robolectric's
+ * camera service. The frame itself comes from a mocked {@link ImageReader}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class Camera2CaptureBackendTest {
+
+  private static final int  FRAME_MESSAGE = 1;
+  private static final int  ERROR_MESSAGE = 2;
+  private static final long TIMEOUT_MS    = 2000L;
+
+  private ShadowCameraManager          cameraService;
+  private Camera2CaptureBackend        backend;
+  private HandlerThread                receiverThread;
+  private Handler                      receiver;
+  private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+
+  @Before
+  public void setUp() {
+    Context context = RuntimeEnvironment.application;
+    cameraService = shadowOf(
+        (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE));
+    CameraCharacteristics characteristics = ShadowCameraCharacteristics.newCameraCharacteristics();
+    shadowOf(characteristics).set(CameraCharacteristics.LENS_FACING, CameraMetadata.LENS_FACING_BACK);
+    cameraService.addCamera("0", characteristics);
+
+    backend = new Camera2CaptureBackend(context, new CameraConfigurationManager(context));
+
+    // Frames and errors go to a thread of their own, like the decoder and the UI
+    receiverThread = new HandlerThread("Receiver");
+    receiverThread.start();
+    receiver = new Handler(receiverThread.getLooper()) {
+      @Override
+      public void handleMessage(Message msg) {
+        received.add(Message.obtain(msg));
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    backend.close();
+    receiverThread.quit();
+  }
+
+  @Test
+  public void opensTheRearCamera() throws Exception {
+    backend.open(-1);
+
+    assertTrue(backend.isOpen());
+  }
+
+  @Test
+  public void deliversTheLuminancePlaneOfARequestedFrame() throws Exception {
+    backend.open(-1);
+    // 4x2 frame with rows padded to 6 bytes
+    byte[] plane = {
+        1, 2, 3, 4, 0, 0,
+        5, 6, 7, 8, 0, 0};
+    final Image image = mockImage(4, 2, 6, plane);
+    final ImageReader reader = mock(ImageReader.class);
+    when(reader.acquireLatestImage()).thenReturn(image);
+
+    backend.requestPreviewFrame(receiver, FRAME_MESSAGE);
+    // Queued behind the request on the camera thread
+    backend.getCameraHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        backend.onFrameAvailable(reader);
+      }
+    });
+
+    Message frame = received.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(frame);
+    assertEquals(FRAME_MESSAGE, frame.what);
+    assertEquals(4, frame.arg1);
+    assertEquals(2, frame.arg2);
+    assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, (byte[]) frame.obj);
+    verify(image).close();
+  }
+
+  @Test
+  public void reportsADisconnectAndForgetsTheDevice() throws Exception {
+    backend.setErrorHandler(receiver, ERROR_MESSAGE);
+    backend.open(-1);
+
+    cameraService.triggerDisconnect();
+
+    Message error = received.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    assertNotNull(error);
+    assertEquals(ERROR_MESSAGE, error.what);
+    assertEquals(0, error.arg1);
+    assertFalse(backend.isOpen());
+  }
+
+  private static Image mockImage(int width, int height, int rowStride, byte[] data) {
+    Image.Plane plane = mock(Image.Plane.class);
+    when(plane.getBuffer()).thenReturn(ByteBuffer.wrap(data));
+    when(plane.getRowStride()).thenReturn(rowStride);
+    when(plane.getPixelStride()).thenReturn(1);
+    Image image = mock(Image.class);
+    when(image.getWidth()).thenReturn(width);
+    when(image.getHeight()).thenReturn(height);
+    when(image.getPlanes()).thenReturn(new Image.Plane[]{plane});
+    return image;
+  }
+}
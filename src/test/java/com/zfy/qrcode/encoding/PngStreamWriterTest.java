@@ -0,0 +1,67 @@
+package com.zfy.qrcode.encoding;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * PngStreamWriter 的输出：相同输入字节相同，并且能被 ImageIO 读出与 QrCodeRenderer 一致的像素
+ */
+public class PngStreamWriterTest {
+
+    private static final String CONTENT = "https://github.com/zfy/qrcode?from=PngStreamWriterTest";
+
+    private static ByteMatrix modules() throws WriterException {
+        return QrCodeRenderer.encode(CONTENT, ErrorCorrectionLevel.M).getMatrix();
+    }
+
+    private static byte[] write(ByteMatrix modules, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter.write(modules, width, height, QrCodeRenderer.DEFAULT_MARGIN, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void sameInputWritesSameBytes() throws Exception {
+        ByteMatrix modules = modules();
+        assertArrayEquals(write(modules, 256, 256), write(modules, 256, 256));
+    }
+
+    @Test
+    public void decodesToRenderedPixels() throws Exception {
+        assertDecodesToRenderedPixels(256, 256);
+    }
+
+    // 宽度不是 8 的倍数时最后一个字节只用了一部分，高度与宽度不同时上下留白
+    @Test
+    public void decodesToRenderedPixelsWithOddSize() throws Exception {
+        assertDecodesToRenderedPixels(203, 251);
+    }
+
+    private static void assertDecodesToRenderedPixels(int width, int height) throws Exception {
+        ByteMatrix modules = modules();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(write(modules, width, height)));
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+
+        int[] expected = new int[width * height];
+        QrCodeRenderer.render(modules, width, height, QrCodeRenderer.DEFAULT_MARGIN,
+                QrCodeRenderer.BLACK, QrCodeRenderer.WHITE, expected);
+        int[] actual = image.getRGB(0, 0, width, height, null, 0, width);
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,101 @@
+package com.zfy.qrcode.encoding;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * QrSegmentEncoder 的输出能被 zxing 解出原文，并且版本不大于单一模式的 Encoder
+ */
+public class QrSegmentEncoderTest {
+
+    private static final int MODULE_PIXELS = 3;
+    // 混合的内容片段：字母数字、数字、小写字节；不含 '\' 和 '~'，它们在 Shift_JIS 中含义不同
+    private static final String PATTERN = "HTTPS://EXAMPLE.COM/T/0001234567890?id=abc&";
+
+    @Test
+    public void numericRuns() throws Exception {
+        assertRoundTrip("0123456789012345678901234567890123456789");
+        assertRoundTrip("ORDER 12345678901234567890 OK");
+    }
+
+    @Test
+    public void alphanumeric() throws Exception {
+        assertRoundTrip("HTTPS://EXAMPLE.COM/T/000123456789");
+        assertRoundTrip("A-B C:D/E.F$G%H*I+J");
+    }
+
+    @Test
+    public void utf8WithEci() throws Exception {
+        assertRoundTrip("https://example.com/?q=二维码&lang=中文");
+        assertRoundTrip("Grüße 123456789012 €");
+    }
+
+    @Test
+    public void shiftJisKanji() throws Exception {
+        assertRoundTrip("漢字テスト");
+        assertRoundTrip("ABC123漢字456DEF");
+    }
+
+    // 字符数字段的长度在版本 9/10、26/27 之间变化，两边都要能解出
+    @Test
+    public void versionGroupBoundaries() throws Exception {
+        Set<Integer> decoded = new TreeSet<>();
+        StringBuilder sb = new StringBuilder();
+        for (int length = 1; ; length += 2) {
+            while (sb.length() < length) {
+                sb.append(PATTERN);
+            }
+            String content = sb.substring(0, length);
+            QRCode code = QrSegmentEncoder.encode(content, ErrorCorrectionLevel.M);
+            int version = code.getVersion().getVersionNumber();
+            if (version > 27) {
+                break;
+            }
+            if (version == 9 || version == 10 || version == 26 || version == 27) {
+                assertRoundTrip(content, code, ErrorCorrectionLevel.M);
+                decoded.add(version);
+            }
+        }
+        assertEquals("[9, 10, 26, 27]", decoded.toString());
+    }
+
+    private static void assertRoundTrip(String content) throws Exception {
+        for (ErrorCorrectionLevel level : ErrorCorrectionLevel.values()) {
+            assertRoundTrip(content, QrSegmentEncoder.encode(content, level), level);
+        }
+    }
+
+    private static void assertRoundTrip(String content, QRCode code, ErrorCorrectionLevel level) throws Exception {
+        assertEquals(content, decode(code.getMatrix()));
+        int version = code.getVersion().getVersionNumber();
+        int singleModeVersion = QrCodeRenderer.encode(content, level).getVersion().getVersionNumber();
+        assertTrue(content + ": version " + version + " > " + singleModeVersion, version <= singleModeVersion);
+    }
+
+    private static String decode(ByteMatrix modules) throws Exception {
+        int size = (modules.getWidth() + QrCodeRenderer.DEFAULT_MARGIN * 2) * MODULE_PIXELS;
+        int[] pixels = new int[size * size];
+        QrCodeRenderer.render(modules, size, size, QrCodeRenderer.DEFAULT_MARGIN,
+                QrCodeRenderer.BLACK, QrCodeRenderer.WHITE, pixels);
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(new RGBLuminanceSource(size, size, pixels)));
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+        return new QRCodeReader().decode(bitmap, hints).getText();
+    }
+}
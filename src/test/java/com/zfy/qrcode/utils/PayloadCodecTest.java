@@ -0,0 +1,140 @@
+package com.zfy.qrcode.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PayloadCodec 的 base45 与压缩往返；异常数据必须原样返回
+ */
+public class PayloadCodecTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // RFC 9285 第 4.3、4.4 节的例子
+    @Test
+    public void base45MatchesRfcVectors() {
+        assertBase45("AB", "BB8");
+        assertBase45("Hello!!", "%69 VD92EX0");
+        assertBase45("base-45", "UJCLQE7W581");
+        assertBase45("ietf!", "QED8WEX0");
+    }
+
+    @Test
+    public void base45OddLength() {
+        // 最后单个字节编码成 2 个字符
+        assertBase45("a", "72");
+        assertBase45("abc", "0EC92");
+        byte[] all = new byte[255];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        assertArrayEquals(all, PayloadCodec.fromBase45(PayloadCodec.toBase45(all), 0));
+    }
+
+    @Test
+    public void base45RejectsInvalidText() {
+        // 超过 0xffff
+        assertNull(PayloadCodec.fromBase45("GGW", 0));
+        // 最后一组只有 1 个字符
+        assertNull(PayloadCodec.fromBase45("BB8B", 0));
+        // 不在字符集中
+        assertNull(PayloadCodec.fromBase45("bb8", 0));
+        // 单个字节超过 0xff
+        assertNull(PayloadCodec.fromBase45("::", 0));
+    }
+
+    @Test
+    public void plainTextIsUnchanged() {
+        assertSame("https://example.com", PayloadCodec.decode("https://example.com"));
+        assertNull(PayloadCodec.decode(null));
+    }
+
+    @Test
+    public void corruptBase45IsUnchanged() {
+        String corrupt = PayloadCodec.HEADER + "bb8";
+        assertSame(corrupt, PayloadCodec.decode(corrupt));
+    }
+
+    @Test
+    public void truncatedPayloadIsUnchanged() {
+        String encoded = PayloadCodec.encode(json(200));
+        // 去掉一个完整的 3 字符组：base45 合法，但 deflate 数据不完整
+        String truncated = encoded.substring(0, encoded.length() - 3);
+        assertSame(truncated, PayloadCodec.decode(truncated));
+        // 最后一组只剩 1 个字符
+        String cut = encoded.substring(0, encoded.length() - (encoded.length() - PayloadCodec.HEADER.length()) % 3 - 2);
+        assertSame(cut, PayloadCodec.decode(cut));
+    }
+
+    @Test
+    public void badAdler32IsUnchanged() {
+        String encoded = PayloadCodec.encode(json(50));
+        byte[] compressed = PayloadCodec.fromBase45(encoded, PayloadCodec.HEADER.length());
+        // zlib 流最后 4 字节是 adler32
+        compressed[compressed.length - 1] ^= 0x01;
+        String tampered = PayloadCodec.HEADER + PayloadCodec.toBase45(compressed);
+        assertSame(tampered, PayloadCodec.decode(tampered));
+    }
+
+    @Test
+    public void inflatedSizeIsCapped() {
+        char[] zeros = new char[1024 * 1024 + 1];
+        Arrays.fill(zeros, '0');
+        String encoded = PayloadCodec.encode(new String(zeros));
+        // 压缩得很小，解压超过 1MB 上限，不解压
+        assertTrue(encoded.length() < 16 * 1024);
+        assertSame(encoded, PayloadCodec.decode(encoded));
+
+        char[] limit = new char[1024 * 1024];
+        Arrays.fill(limit, '0');
+        String content = new String(limit);
+        assertEquals(content, PayloadCodec.decode(PayloadCodec.encode(content)));
+    }
+
+    @Test
+    public void jsonRoundTrip() {
+        String content = json(100);
+        assertTrue(content.length() > 4 * 1024);
+        String encoded = PayloadCodec.encodeIfSmaller(content);
+        assertTrue(encoded.startsWith(PayloadCodec.HEADER));
+        assertTrue(encoded.length() < content.length());
+        assertEquals(content, PayloadCodec.decode(encoded));
+    }
+
+    @Test
+    public void shortContentIsNotCompressed() {
+        String content = "HTTPS://EXAMPLE.COM/T/000123456789";
+        assertSame(content, PayloadCodec.encodeIfSmaller(content));
+        assertNotEquals(content, PayloadCodec.encode(content));
+    }
+
+    private static void assertBase45(String text, String base45) {
+        byte[] data = text.getBytes(UTF_8);
+        assertEquals(base45, PayloadCodec.toBase45(data));
+        assertArrayEquals(data, PayloadCodec.fromBase45(base45, 0));
+    }
+
+    // 几 KB 的 JSON，含中文
+    private static String json(int items) {
+        StringBuilder sb = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"name\":\"商品-").append(i)
+                    .append("\",\"price\":").append(i * 37 % 1000)
+                    .append(",\"tags\":[\"qr\",\"payload\"]}");
+        }
+        return sb.append("]}").toString();
+    }
+}